@@ -0,0 +1,264 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Times the compiled statements DbAccessor uses against the queries it used
+ * to build for every call, on an in-memory database with a few thousand
+ * alarms.  The "old" methods below are copied from DbAccessor before the
+ * statements were compiled once.  Results are logged under the tag
+ * DbAccessorBenchmark, in microseconds per call; each benchmark also checks
+ * that both paths leave the database in the same state.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbAccessorBenchmark {
+  private static final String TAG = "DbAccessorBenchmark";
+  private static final int ALARMS = 5000;
+  private static final int ROUNDS = 5;
+
+  private SQLiteDatabase db;
+
+  @Before
+  public void setUp() {
+    db = SQLiteDatabase.create(null);
+    new DbHelper(InstrumentationRegistry.getTargetContext()).onCreate(db);
+    db.beginTransaction();
+    try {
+      for (int i = 0; i < ALARMS; ++i) {
+        ContentValues values = new ContentValues();
+        values.put(DbHelper.ALARMS_COL_TIME, i % 86400);
+        values.put(DbHelper.ALARMS_COL_ENABLED, false);
+        values.put(DbHelper.ALARMS_COL_NAME, "Alarm " + i);
+        values.put(DbHelper.ALARMS_COL_DAY_OF_WEEK, i % 128);
+        db.insert(DbHelper.DB_TABLE_ALARMS, null, values);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  // The old enableAlarm().
+  private boolean oldEnableAlarm(long alarmId, boolean enabled) {
+    ContentValues values = new ContentValues(1);
+    values.put(DbHelper.ALARMS_COL_ENABLED, enabled);
+    int count = db.update(DbHelper.DB_TABLE_ALARMS, values,
+        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
+    return count != 0;
+  }
+
+  // The old readAlarmInfo(long), less the AlarmInfo.
+  private int oldReadAlarmInfo(long alarmId) {
+    Cursor cursor = db.query(DbHelper.DB_TABLE_ALARMS,
+        AlarmInfo.contentColumns(),
+        DbHelper.ALARMS_COL__ID + " = " + alarmId, null, null, null, null);
+    cursor.moveToFirst();
+    int time = cursor.getInt(cursor.getColumnIndex(DbHelper.ALARMS_COL_TIME));
+    cursor.close();
+    return time;
+  }
+
+  // The old writeAlarmSettings().
+  private boolean oldWriteAlarmSettings(long alarmId, AlarmSettings settings) {
+    Cursor cursor = db.query(DbHelper.DB_TABLE_SETTINGS,
+        new String[] { DbHelper.SETTINGS_COL_ID },
+        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null, null, null, null);
+
+    boolean success;
+    if (cursor.getCount() < 1) {
+      success = db.insert(DbHelper.DB_TABLE_SETTINGS, null,
+          settings.contentValues(alarmId)) >= 0;
+    } else {
+      success = db.update(DbHelper.DB_TABLE_SETTINGS,
+          settings.contentValues(alarmId),
+          DbHelper.SETTINGS_COL_ID + " = " + alarmId, null) == 1;
+    }
+    cursor.close();
+    return success;
+  }
+
+  // The old deleteAlarm().
+  private boolean oldDeleteAlarm(long alarmId) {
+    int count = db.delete(DbHelper.DB_TABLE_ALARMS,
+        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
+    db.delete(DbHelper.DB_TABLE_SETTINGS,
+        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null);
+    return count > 0;
+  }
+
+  private static int execute(SQLiteStatement statement, long alarmId) {
+    statement.bindLong(1, alarmId);
+    int count = statement.executeUpdateDelete();
+    statement.clearBindings();
+    return count;
+  }
+
+  private int countEnabled() {
+    Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM "
+        + DbHelper.DB_TABLE_ALARMS + " WHERE "
+        + DbHelper.ALARMS_COL_ENABLED + " = 1", null);
+    cursor.moveToFirst();
+    int count = cursor.getInt(0);
+    cursor.close();
+    return count;
+  }
+
+  private int countRows(String table) {
+    Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+    cursor.moveToFirst();
+    int count = cursor.getInt(0);
+    cursor.close();
+    return count;
+  }
+
+  private static void report(String operation, long oldNanos, long newNanos) {
+    long calls = (long) ALARMS * ROUNDS;
+    Log.i(TAG, String.format("%s: old %.1f us, compiled %.1f us per call",
+        operation, oldNanos / 1000.0 / calls, newNanos / 1000.0 / calls));
+  }
+
+  @Test
+  public void enableAlarm() {
+    SQLiteStatement enable = db.compileStatement(DbAccessor.ENABLE_ALARM_SQL);
+    SQLiteStatement disable = db.compileStatement(DbAccessor.DISABLE_ALARM_SQL);
+    long oldNanos = 0;
+    long newNanos = 0;
+    for (int round = 0; round < ROUNDS; ++round) {
+      boolean enabled = round % 2 == 0;
+      long start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; ++id) {
+        oldEnableAlarm(id, enabled);
+      }
+      oldNanos += System.nanoTime() - start;
+      assertEquals(enabled ? ALARMS : 0, countEnabled());
+
+      start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; ++id) {
+        execute(enabled ? disable : enable, id);
+      }
+      newNanos += System.nanoTime() - start;
+      assertEquals(enabled ? 0 : ALARMS, countEnabled());
+    }
+    enable.close();
+    disable.close();
+    report("enableAlarm", oldNanos, newNanos);
+  }
+
+  @Test
+  public void readAlarmInfo() {
+    long oldNanos = 0;
+    long newNanos = 0;
+    String[] args = new String[1];
+    for (int round = 0; round < ROUNDS; ++round) {
+      long oldSum = 0;
+      long start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; ++id) {
+        oldSum += oldReadAlarmInfo(id);
+      }
+      oldNanos += System.nanoTime() - start;
+
+      long newSum = 0;
+      start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; ++id) {
+        args[0] = Long.toString(id);
+        Cursor cursor = db.rawQuery(DbAccessor.SELECT_ALARM_SQL, args);
+        cursor.moveToFirst();
+        newSum += cursor.getInt(
+            cursor.getColumnIndex(DbHelper.ALARMS_COL_TIME));
+        cursor.close();
+      }
+      newNanos += System.nanoTime() - start;
+      assertEquals(oldSum, newSum);
+    }
+    report("readAlarmInfo", oldNanos, newNanos);
+  }
+
+  @Test
+  public void writeAlarmSettings() {
+    SQLiteStatement write = db.compileStatement(DbAccessor.WRITE_SETTINGS_SQL);
+    AlarmSettings settings = new AlarmSettings();
+    long oldNanos = 0;
+    long newNanos = 0;
+    // The first round inserts, the others replace.
+    for (int round = 0; round < ROUNDS; ++round) {
+      long start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; ++id) {
+        oldWriteAlarmSettings(id, settings);
+      }
+      oldNanos += System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (long id = ALARMS + 1; id <= 2 * ALARMS; ++id) {
+        // Bound in the order of AlarmSettings.contentColumns(), as
+        // DbAccessor.writeAlarmSettings() does.
+        write.bindLong(1, id);
+        write.bindString(2, settings.getTone().toString());
+        DbAccessor.bindStringOrNull(write, 3, settings.getToneName());
+        write.bindLong(4, settings.getSnoozeMinutes());
+        write.bindLong(5, settings.getVibrate() ? 1 : 0);
+        write.bindLong(6, settings.getVolumeStartPercent());
+        write.bindLong(7, settings.getVolumeEndPercent());
+        write.bindLong(8, settings.getVolumeChangeTimeSec());
+        write.executeInsert();
+        write.clearBindings();
+      }
+      newNanos += System.nanoTime() - start;
+      assertEquals(2 * ALARMS, countRows(DbHelper.DB_TABLE_SETTINGS));
+    }
+    write.close();
+    report("writeAlarmSettings", oldNanos, newNanos);
+  }
+
+  @Test
+  public void deleteAlarm() {
+    // Deletes half the alarms each way, ROUNDS times over fresh rows.
+    long oldNanos = 0;
+    long newNanos = 0;
+    for (int round = 0; round < ROUNDS; ++round) {
+      if (round > 0) {
+        tearDown();
+        setUp();
+      }
+      SQLiteStatement deleteAlarm =
+          db.compileStatement(DbAccessor.DELETE_ALARM_SQL);
+      SQLiteStatement deleteSettings =
+          db.compileStatement(DbAccessor.DELETE_SETTINGS_SQL);
+
+      long start = System.nanoTime();
+      for (long id = 1; id <= ALARMS; id += 2) {
+        oldDeleteAlarm(id);
+      }
+      oldNanos += 2 * (System.nanoTime() - start);
+
+      start = System.nanoTime();
+      for (long id = 2; id <= ALARMS; id += 2) {
+        execute(deleteAlarm, id);
+        execute(deleteSettings, id);
+      }
+      newNanos += 2 * (System.nanoTime() - start);
+      assertEquals(0, countRows(DbHelper.DB_TABLE_ALARMS));
+
+      deleteAlarm.close();
+      deleteSettings.close();
+    }
+    report("deleteAlarm", oldNanos, newNanos);
+  }
+}
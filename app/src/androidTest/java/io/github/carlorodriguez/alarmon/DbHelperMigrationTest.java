@@ -0,0 +1,173 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Upgrades a database created by the first release to the current schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DbHelperMigrationTest {
+  private SQLiteDatabase db;
+  private DbHelper helper;
+
+  @Before
+  public void setUp() {
+    db = SQLiteDatabase.create(null);
+    helper = new DbHelper(InstrumentationRegistry.getTargetContext());
+  }
+
+  @After
+  public void tearDown() {
+    db.close();
+  }
+
+  // The schema as version 1 created it.  Kept literal, rather than built
+  // from the DbHelper constants, so that it can't drift with them.
+  private void createVersion1() {
+    db.execSQL("CREATE TABLE alarms ("
+        + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+        + "name TEXT, "
+        + "dow UNSIGNED INTEGER (0, 127), "
+        + "time UNSIGNED INTEGER (0, 86399),"
+        + "enabled UNSIGNED INTEGER (0, 1))");
+    db.execSQL("CREATE TABLE settings ("
+        + "id INTEGER PRIMARY KEY, "
+        + "tone_url TEXT,"
+        + "tone_name TEXT,"
+        + "snooze UNSIGNED INTEGER (1, 60),"
+        + "vibrate UNSIGNED INTEGER (0, 1),"
+        + "vol_start UNSIGNED INTEGER (1, 100),"
+        + "vol_end UNSIGNED INTEGER (1, 100),"
+        + "vol_time UNSIGNED INTEGER (1, 60))");
+    db.execSQL("INSERT INTO alarms (_id, name, dow, time, enabled) VALUES "
+        + "(1, 'Work', 62, 25200, 1), "
+        + "(2, 'Weekend', 65, 32400, 0), "
+        + "(3, NULL, 0, 0, 1)");
+    db.execSQL("INSERT INTO settings VALUES "
+        + "(-1, 'content://settings/system/alarm_alert', 'Default', 10, 0,"
+        + " 0, 100, 20), "
+        + "(2, 'content://media/external/audio/media/7', 'Song', 5, 1,"
+        + " 10, 90, 30)");
+  }
+
+  private boolean exists(String type, String name) {
+    Cursor cursor = db.rawQuery(
+        "SELECT COUNT(*) FROM sqlite_master WHERE type = ? AND name = ?",
+        new String[] { type, name });
+    cursor.moveToFirst();
+    boolean exists = cursor.getInt(0) == 1;
+    cursor.close();
+    return exists;
+  }
+
+  private String query(String sql) {
+    Cursor cursor = db.rawQuery(sql, null);
+    StringBuilder rows = new StringBuilder();
+    while (cursor.moveToNext()) {
+      for (int i = 0; i < cursor.getColumnCount(); ++i) {
+        rows.append(i == 0 ? "" : ",").append(cursor.getString(i));
+      }
+      rows.append(";");
+    }
+    cursor.close();
+    return rows.toString();
+  }
+
+  @Test
+  public void upgradeFromVersion1KeepsAlarmsAndSettings() {
+    createVersion1();
+    helper.onUpgrade(db, 1, DbHelper.DB_VERSION);
+
+    assertEquals("1,Work,62,25200,1;2,Weekend,65,32400,0;3,null,0,0,1;",
+        query("SELECT _id, name, dow, time, enabled FROM alarms"
+            + " ORDER BY _id"));
+    assertEquals("-1,content://settings/system/alarm_alert,Default,10,0,0,100,20;"
+        + "2,content://media/external/audio/media/7,Song,5,1,10,90,30;",
+        query("SELECT id, tone_url, tone_name, snooze, vibrate, vol_start,"
+            + " vol_end, vol_time FROM settings ORDER BY id"));
+    // New alarms still get fresh ids.
+    db.execSQL("INSERT INTO alarms (name, dow, time, enabled)"
+        + " VALUES ('New', 0, 60, 1)");
+    assertEquals("4;", query("SELECT MAX(_id) FROM alarms"));
+  }
+
+  @Test
+  public void upgradeFromVersion1CreatesEverySchemaObject() {
+    createVersion1();
+    helper.onUpgrade(db, 1, DbHelper.DB_VERSION);
+
+    assertTrue(exists("index", "alarms_enabled"));
+    assertTrue(exists("index", "alarms_time"));
+    assertTrue(exists("view", DbHelper.DB_VIEW_ALARMS_WITH_SETTINGS));
+    assertTrue(exists("table", DbHelper.DB_TABLE_MEDIA_INDEX));
+  }
+
+  @Test
+  public void viewJoinsUpgradedRows() {
+    createVersion1();
+    helper.onUpgrade(db, 1, DbHelper.DB_VERSION);
+
+    assertEquals("1,null;2,Song;3,null;",
+        query("SELECT _id, tone_name FROM "
+            + DbHelper.DB_VIEW_ALARMS_WITH_SETTINGS + " ORDER BY _id"));
+  }
+
+  @Test
+  public void upgradeFromVersion2AddsTheMediaIndex() {
+    createVersion1();
+    helper.onUpgrade(db, 1, 2);
+    assertTrue(exists("view", DbHelper.DB_VIEW_ALARMS_WITH_SETTINGS));
+    assertEquals("0;", query("SELECT COUNT(*) FROM sqlite_master"
+        + " WHERE name = '" + DbHelper.DB_TABLE_MEDIA_INDEX + "'"));
+
+    helper.onUpgrade(db, 2, 3);
+    assertTrue(exists("table", DbHelper.DB_TABLE_MEDIA_INDEX));
+    assertEquals("1,Work;2,Weekend;3,null;",
+        query("SELECT _id, name FROM alarms ORDER BY _id"));
+    db.execSQL("INSERT INTO " + DbHelper.DB_TABLE_MEDIA_INDEX + " ("
+        + DbHelper.MEDIA_INDEX_COL__ID + ", "
+        + DbHelper.MEDIA_INDEX_COL_TITLE + ", "
+        + DbHelper.MEDIA_INDEX_COL_ARTIST + ", "
+        + DbHelper.MEDIA_INDEX_COL_ALBUM + ", "
+        + DbHelper.MEDIA_INDEX_COL_MODIFIED + ")"
+        + " VALUES (7, 'Song', NULL, 'Album', 1450000000)");
+    assertEquals("7,Song,null,Album,1450000000;",
+        query("SELECT * FROM " + DbHelper.DB_TABLE_MEDIA_INDEX));
+  }
+
+  @Test
+  public void upgradedSchemaMatchesNewSchema() {
+    createVersion1();
+    helper.onUpgrade(db, 1, DbHelper.DB_VERSION);
+    String upgraded = query("SELECT type, name, sql FROM sqlite_master"
+        + " WHERE name NOT LIKE 'sqlite_%' ORDER BY name");
+
+    SQLiteDatabase fresh = SQLiteDatabase.create(null);
+    try {
+      helper.onCreate(fresh);
+      Cursor cursor = fresh.rawQuery("SELECT type, name, sql FROM sqlite_master"
+          + " WHERE name NOT LIKE 'sqlite_%' ORDER BY name", null);
+      StringBuilder created = new StringBuilder();
+      while (cursor.moveToNext()) {
+        created.append(cursor.getString(0)).append(",")
+            .append(cursor.getString(1)).append(",")
+            .append(cursor.getString(2)).append(";");
+      }
+      cursor.close();
+      assertEquals(created.toString(), upgraded);
+    } finally {
+      fresh.close();
+    }
+  }
+}
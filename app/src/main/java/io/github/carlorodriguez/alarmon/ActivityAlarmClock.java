@@ -44,6 +44,7 @@ import com.wdullaer.materialdatetimepicker.time.*;
 import com.wdullaer.materialdatetimepicker.time.TimePickerDialog;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 
 /**
@@ -68,11 +69,11 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
     private static AlarmClockServiceBinder service;
     private static NotificationServiceBinder notifyService;
-    private DbAccessor db;
     private static AlarmAdapter adapter;
-    private Cursor cursor;
+    private AsyncDbAccessor asyncDb;
     private Handler handler;
     private Runnable tickCallback;
+    private AlarmClockListener alarmClockListener;
     private static RecyclerView alarmList;
     private int mLastFirstVisiblePosition;
 
@@ -94,7 +95,27 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
         // Access to in-memory and persistent data structures.
         service = new AlarmClockServiceBinder(getApplicationContext());
 
-        db = new DbAccessor(getApplicationContext());
+        // The service tells us which alarms changed while we are bound, so
+        // the list is only reloaded in full when we come back to the front.
+        alarmClockListener = new AlarmClockListener.Stub() {
+            @Override
+            public void onAlarmsChanged(final long[] alarmIds) {
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyAlarmChanges(alarmIds);
+                    }
+                });
+            }
+        };
+
+        service.setListener(alarmClockListener);
+
+        asyncDb = new AsyncDbAccessor(getApplicationContext());
+
+        // The adapter is shared with the static helpers below.  Drop any left
+        // over from a previous instance of this activity.
+        adapter = null;
 
         handler = new Handler();
 
@@ -121,20 +142,41 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
                 final long alarmId = alarmInfo.getAlarmId();
 
-                removeItemFromList(ActivityAlarmClock.this, alarmId,
-                        viewHolder.getAdapterPosition());
-
-                Snackbar.make(findViewById(R.id.coordinator_layout),
-                        getString(R.string.alarm_deleted), Snackbar.LENGTH_LONG)
-                .setAction(getString(R.string.undo), new View.OnClickListener() {
+                // Deleting the alarm deletes its settings too, so read them
+                // first for the undo.
+                asyncDb.read(new AsyncDbAccessor.Operation<AlarmSettings>() {
                     @Override
-                    public void onClick(View v) {
-                        undoAlarmDeletion(alarmInfo.getTime(),
-                                db.readAlarmSettings(alarmId),
-                                alarmInfo.getName(), alarmInfo.enabled());
+                    public AlarmSettings run(DbAccessor db) {
+                        return db.readAlarmSettings(alarmId);
                     }
-                })
-                .show();
+                }, new AsyncDbAccessor.Callback<AlarmSettings>() {
+                    @Override
+                    public void onResult(final AlarmSettings settings) {
+                        // The list may have been reloaded meanwhile.
+                        int position = positionOf(alarmId);
+
+                        if (position < 0) {
+                            return;
+                        }
+
+                        removeItemFromList(ActivityAlarmClock.this, alarmId,
+                                position);
+
+                        Snackbar.make(findViewById(R.id.coordinator_layout),
+                                getString(R.string.alarm_deleted),
+                                Snackbar.LENGTH_LONG)
+                        .setAction(getString(R.string.undo),
+                                new View.OnClickListener() {
+                            @Override
+                            public void onClick(View v) {
+                                undoAlarmDeletion(alarmInfo.getTime(),
+                                        settings, alarmInfo.getName(),
+                                        alarmInfo.enabled());
+                            }
+                        })
+                        .show();
+                    }
+                });
             }
         };
 
@@ -208,7 +250,8 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
             new Handler().postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    if (adapter.getItemCount() >= 1 && alarmList.getChildAt(0) != null) {
+                    if (adapter != null && adapter.getItemCount() >= 1
+                            && alarmList.getChildAt(0) != null) {
                         AppIntro.showcaseAlarmDeletion(ActivityAlarmClock.this,
                                 alarmList.getChildAt(0));
                     }
@@ -217,14 +260,31 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
         }
     }
 
+    private static int positionOf(long alarmId) {
+        ArrayList<AlarmInfo> infos = adapter.getAlarmInfos();
+
+        for (int i = 0; i < infos.size(); ++i) {
+            if (infos.get(i).getAlarmId() == alarmId) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
     private void undoAlarmDeletion(AlarmTime alarmTime,
-            AlarmSettings alarmSettings, String alarmName, boolean enabled) {
-        long newAlarmId = service.resurrectAlarm(alarmTime, alarmName, enabled);
+            final AlarmSettings alarmSettings, String alarmName,
+            boolean enabled) {
+        final long newAlarmId =
+                service.resurrectAlarm(alarmTime, alarmName, enabled);
 
         if (newAlarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
-            db.writeAlarmSettings(newAlarmId, alarmSettings);
-
-            requery();
+            asyncDb.write(new AsyncDbAccessor.Operation<Boolean>() {
+                @Override
+                public Boolean run(DbAccessor db) {
+                    return db.writeAlarmSettings(newAlarmId, alarmSettings);
+                }
+            }, null);
         }
     }
 
@@ -238,9 +298,7 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
         handler.post(tickCallback);
 
-        requery();
-
-        alarmList.getLayoutManager().scrollToPosition(mLastFirstVisiblePosition);
+        requery(true);
 
         notifyService = new NotificationServiceBinder(getApplicationContext());
 
@@ -301,13 +359,11 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
     protected void onDestroy() {
         super.onDestroy();
 
-        db.closeConnections();
+        asyncDb.cancel();
 
         activityAlarmClock = null;
 
         notifyService = null;
-
-        cursor.close();
     }
 
     @Override
@@ -328,8 +384,6 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
         AlarmTime time = new AlarmTime(hourOfDay, minute, second);
 
         service.createAlarm(time);
-
-        requery();
     }
 
     @Override
@@ -373,8 +427,6 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
                         testTime.get(Calendar.SECOND));
 
                 service.createAlarm(time);
-
-                requery();
                 break;
             case ACTION_PENDING_ALARMS:
                 // Displays a list of pending alarms (only visible in debug mode).
@@ -395,7 +447,9 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
 
     private void redraw() {
         // Recompute expiration times in the list view
-        adapter.notifyDataSetChanged();
+        if (adapter != null) {
+            adapter.notifyDataSetChanged();
+        }
 
         Calendar now = Calendar.getInstance();
 
@@ -407,19 +461,156 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
     }
 
     private void requery() {
-        cursor = db.readAlarmInfo();
+        requery(false);
+    }
+
+    /**
+     * Reloads the alarm list in the background and applies the differences
+     * to the existing adapter when ready.
+     * @param restoreScrollPosition Whether to scroll back to the position
+     *     saved when the activity was paused.
+     */
+    private void requery(final boolean restoreScrollPosition) {
+        final AlarmAdapter current = adapter;
+
+        final ArrayList<AlarmInfo> snapshot = current == null ? null
+                : new ArrayList<>(current.getAlarmInfos());
+
+        final int version = current == null ? 0 : current.version();
+
+        asyncDb.read(new AsyncDbAccessor.Operation<RequeryResult>() {
+            @Override
+            public RequeryResult run(DbAccessor db) {
+                Cursor cursor = db.readAlarmInfo();
+
+                ArrayList<AlarmInfo> infos = new ArrayList<>(cursor.getCount());
+
+                while (cursor.moveToNext()) {
+                    infos.add(new AlarmInfo(cursor));
+                }
+
+                cursor.close();
+
+                AlarmListDiff diff = snapshot == null ? null
+                        : AlarmListDiff.compute(snapshot, infos);
+
+                return new RequeryResult(infos, diff);
+            }
+        }, new AsyncDbAccessor.Callback<RequeryResult>() {
+            @Override
+            public void onResult(RequeryResult result) {
+                if (adapter != null) {
+                    adapter.invalidatePendingAlarms();
+                }
+
+                applyRequeryResult(current, version, result);
+
+                if (restoreScrollPosition) {
+                    alarmList.getLayoutManager().scrollToPosition(
+                            mLastFirstVisiblePosition);
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates just the given alarms in the list, as reported by the service.
+     * Only those alarms are read back, and the list is patched and diffed on
+     * the background thread.
+     */
+    private void applyAlarmChanges(final long[] alarmIds) {
+        final AlarmAdapter current = adapter;
+
+        if (current == null) {
+            requery();
+
+            return;
+        }
+
+        final ArrayList<AlarmInfo> snapshot =
+                new ArrayList<>(current.getAlarmInfos());
+
+        final int version = current.version();
+
+        asyncDb.read(new AsyncDbAccessor.Operation<RequeryResult>() {
+            @Override
+            public RequeryResult run(DbAccessor db) {
+                ArrayList<AlarmInfo> infos = new ArrayList<>(
+                        snapshot.size() + alarmIds.length);
+
+                for (AlarmInfo info : snapshot) {
+                    if (Arrays.binarySearch(alarmIds, info.getAlarmId()) < 0) {
+                        infos.add(info);
+                    }
+                }
+
+                // Put each changed alarm back where the full query would
+                // have put it, see DbAccessor.ALARMS_ORDER.
+                for (long alarmId : alarmIds) {
+                    AlarmInfo info = db.readAlarmInfo(alarmId);
 
-        ArrayList<AlarmInfo> infos = new ArrayList<>();
+                    if (info == null) {
+                        continue;
+                    }
+
+                    int position = 0;
+
+                    while (position < infos.size()
+                            && comesBefore(infos.get(position), info)) {
+                        position++;
+                    }
+
+                    infos.add(position, info);
+                }
 
-        while (cursor.moveToNext()) {
-            infos.add(new AlarmInfo(cursor));
+                return new RequeryResult(infos,
+                        AlarmListDiff.compute(snapshot, infos));
+            }
+        }, new AsyncDbAccessor.Callback<RequeryResult>() {
+            @Override
+            public void onResult(RequeryResult result) {
+                applyRequeryResult(current, version, result);
+
+                adapter.onAlarmsChanged(alarmIds);
+            }
+        });
+    }
+
+    private static boolean comesBefore(AlarmInfo a, AlarmInfo b) {
+        int aTime = a.getTime().secondsAfterMidnight();
+
+        int bTime = b.getTime().secondsAfterMidnight();
+
+        return aTime < bTime || (aTime == bTime
+                && a.getAlarmId() < b.getAlarmId());
+    }
+
+    private void applyRequeryResult(AlarmAdapter current, int version,
+            RequeryResult result) {
+        if (adapter == null) {
+            adapter = new AlarmAdapter(result.infos, service,
+                    ActivityAlarmClock.this);
+
+            alarmList.setAdapter(adapter);
+        } else if (adapter == current && adapter.version() == version) {
+            adapter.update(result.infos, result.diff);
+        } else {
+            // The list changed while the query was running, so the diff no
+            // longer applies.
+            adapter.setAlarmInfos(result.infos);
         }
 
-        adapter = new AlarmAdapter(infos, service, this);
+        setEmptyViewIfEmpty(ActivityAlarmClock.this);
+    }
 
-        alarmList.setAdapter(adapter);
+    private static final class RequeryResult {
+        final ArrayList<AlarmInfo> infos;
+        final AlarmListDiff diff;
 
-        setEmptyViewIfEmpty(this);
+        RequeryResult(ArrayList<AlarmInfo> infos, AlarmListDiff diff) {
+            this.infos = infos;
+            this.diff = diff;
+        }
     }
 
     public static void setEmptyViewIfEmpty(Activity activity) {
@@ -496,9 +687,11 @@ public final class ActivityAlarmClock extends AppCompatActivity implements
                         public void onClick(DialogInterface dialog, int which) {
                             service.deleteAllAlarms();
 
-                            adapter.removeAll();
+                            if (adapter != null) {
+                                adapter.removeAll();
 
-                            setEmptyViewIfEmpty(getActivity());
+                                setEmptyViewIfEmpty(getActivity());
+                            }
 
                             dismiss();
                         }
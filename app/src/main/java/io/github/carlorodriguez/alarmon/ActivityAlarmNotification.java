@@ -48,7 +48,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
     public static final int TIMEOUT = 0;
 
     private NotificationServiceBinder notifyService;
-    private DbAccessor db;
+    private AsyncDbAccessor asyncDb;
     private Handler handler;
     private Runnable timeTick;
 
@@ -78,7 +78,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
         // Make sure this window always shows over the lock screen.
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_SHOW_WHEN_LOCKED);
 
-        db = new DbAccessor(getApplicationContext());
+        asyncDb = new AsyncDbAccessor(getApplicationContext());
 
         // Start the notification service and bind to it.
         notifyService = new NotificationServiceBinder(getApplicationContext());
@@ -141,7 +141,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
 
                 snoozeMinutes = snooze;
 
-                redraw();
+                redrawSnooze();
             }
         });
 
@@ -159,7 +159,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
 
                 snoozeMinutes = snooze;
 
-                redraw();
+                redrawSnooze();
             }
         });
 
@@ -195,7 +195,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
 
-        db.closeConnections();
+        asyncDb.cancel();
 
         notifyService.unbind();
     }
@@ -220,7 +220,7 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
         notifyService.call(new NotificationServiceBinder.ServiceCallback() {
             @Override
             public void run(NotificationServiceInterface service) {
-                long alarmId;
+                final long alarmId;
 
                 try {
                     alarmId = service.currentAlarmId();
@@ -228,45 +228,71 @@ public final class ActivityAlarmNotification extends AppCompatActivity {
                     return;
                 }
 
-                AlarmInfo alarmInfo = db.readAlarmInfo(alarmId);
+                asyncDb.read(new AsyncDbAccessor.Operation<FiringAlarm>() {
+                    @Override
+                    public FiringAlarm run(DbAccessor db) {
+                        return new FiringAlarm(db.readAlarmInfo(alarmId),
+                                db.readAlarmSettings(alarmId));
+                    }
+                }, new AsyncDbAccessor.Callback<FiringAlarm>() {
+                    @Override
+                    public void onResult(FiringAlarm alarm) {
+                        redraw(alarmId, alarm);
+                    }
+                });
+            }
+        });
+    }
 
-                if (snoozeMinutes == 0) {
-                    snoozeMinutes = db.readAlarmSettings(alarmId).
-                            getSnoozeMinutes();
-                }
+    private static final class FiringAlarm {
+        final AlarmInfo info;
+        final AlarmSettings settings;
+
+        FiringAlarm(AlarmInfo info, AlarmSettings settings) {
+            this.info = info;
+            this.settings = settings;
+        }
+    }
 
-                String infoTime = "";
+    private void redraw(long alarmId, FiringAlarm alarm) {
+        if (snoozeMinutes == 0) {
+            snoozeMinutes = alarm.settings.getSnoozeMinutes();
+        }
 
-                String infoName = "";
+        String infoTime = "";
 
-                if (alarmInfo != null) {
-                    infoTime = alarmInfo.getTime().toString();
+        String infoName = "";
 
-                    infoName = alarmInfo.getName();
-                }
+        if (alarm.info != null) {
+            infoTime = alarm.info.getTime().toString();
 
-                String info = infoTime + "\n" + infoName;
+            infoName = alarm.info.getName();
+        }
 
-                if (AppSettings.isDebugMode(getApplicationContext())) {
-                    info += " [" + alarmId + "]";
+        String info = infoTime + "\n" + infoName;
 
-                    findViewById(R.id.volume).setVisibility(View.VISIBLE);
-                } else {
-                    findViewById(R.id.volume).setVisibility(View.GONE);
-                }
-                TextView infoText = (TextView) findViewById(R.id.alarm_info);
+        if (AppSettings.isDebugMode(getApplicationContext())) {
+            info += " [" + alarmId + "]";
 
-                infoText.setText(info);
+            findViewById(R.id.volume).setVisibility(View.VISIBLE);
+        } else {
+            findViewById(R.id.volume).setVisibility(View.GONE);
+        }
+        TextView infoText = (TextView) findViewById(R.id.alarm_info);
 
-                TextView snoozeInfo = (TextView) findViewById(
-                        R.id.notify_snooze_time);
+        infoText.setText(info);
 
-                String snoozeInfoText = getString(R.string.snooze) + "\n"
-                        + getString(R.string.minutes, snoozeMinutes);
+        redrawSnooze();
+    }
 
-                snoozeInfo.setText(snoozeInfoText);
-            }
-        });
+    private void redrawSnooze() {
+        TextView snoozeInfo = (TextView) findViewById(
+                R.id.notify_snooze_time);
+
+        String snoozeInfoText = getString(R.string.snooze) + "\n"
+                + getString(R.string.minutes, snoozeMinutes);
+
+        snoozeInfo.setText(snoozeInfoText);
     }
 
     private void showDialogFragment(int id) {
@@ -27,6 +27,7 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnMultiChoiceClickListener;
+import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.net.Uri;
 import android.os.Build;
@@ -112,7 +113,10 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
 
   private static long alarmId;
   private static AlarmClockServiceBinder service;
-  private DbAccessor db;
+  private AsyncDbAccessor asyncDb;
+  // Whether this activity has received its settings from asyncDb yet.  The
+  // static fields may still hold values from a previous instance until then.
+  private boolean settingsLoaded;
   private AlarmInfo originalInfo;
   private static AlarmInfo info;
   private static AlarmSettings originalSettings;
@@ -144,12 +148,49 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
 
     // Access to in-memory and persistent data structures.
     service = new AlarmClockServiceBinder(getApplicationContext());
-    db = new DbAccessor(getApplicationContext());
 
-    // Read the current settings from the database.  Keep a copy of the
-    // original values so that we can write new values only if they differ
-    // from the originals.
-    originalInfo = db.readAlarmInfo(alarmId);
+    // Read the current settings from the database in the background and
+    // fill in the list once they arrive.
+    final long loadAlarmId = alarmId;
+    final Bundle savedState = savedInstanceState;
+    asyncDb = new AsyncDbAccessor(getApplicationContext());
+    asyncDb.read(new AsyncDbAccessor.Operation<LoadedSettings>() {
+      @Override
+      public LoadedSettings run(DbAccessor db) {
+        return new LoadedSettings(db.readAlarmInfo(loadAlarmId),
+            db.readAlarmSettings(loadAlarmId));
+      }
+    }, new AsyncDbAccessor.Callback<LoadedSettings>() {
+      @Override
+      public void onResult(LoadedSettings loaded) {
+        onSettingsLoaded(loaded, savedState);
+      }
+
+      @Override
+      public void onFailure(RuntimeException e) {
+        // There is nothing to edit.
+        finish();
+      }
+    });
+  }
+
+  private static final class LoadedSettings {
+    final AlarmInfo info;
+    final AlarmSettings settings;
+
+    LoadedSettings(AlarmInfo info, AlarmSettings settings) {
+      this.info = info;
+      this.settings = settings;
+    }
+  }
+
+  private void onSettingsLoaded(LoadedSettings loaded,
+      Bundle savedInstanceState) {
+    settingsLoaded = true;
+
+    // Keep a copy of the original values so that we can write new values
+    // only if they differ from the originals.
+    originalInfo = loaded.info;
     // Info will not be available for the default settings.
     if (originalInfo != null) {
       info = new AlarmInfo(originalInfo);
@@ -173,12 +214,12 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
             }
 
             if (savedInstanceState.containsKey(SETTINGS_DAYS_OF_WEEK_KEY)) {
-                info.setDaysOfWeek(new Week(savedInstanceState.getBooleanArray(
+                info.setDaysOfWeek(Week.valueOf(savedInstanceState.getInt(
                         SETTINGS_DAYS_OF_WEEK_KEY)));
             }
         }
     }
-    originalSettings = db.readAlarmSettings(alarmId);
+    originalSettings = loaded.settings;
     settings = new AlarmSettings(originalSettings);
 
       if (savedInstanceState != null) {
@@ -363,7 +404,7 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    db.closeConnections();
+    asyncDb.cancel();
 
       if (progressDialog != null) {
           progressDialog.dismiss();
@@ -397,6 +438,10 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
 
+        if (!settingsLoaded) {
+            return;
+        }
+
         outState.putBoolean(SETTINGS_VIBRATE_KEY, settings.getVibrate());
 
         outState.putInt(SETTINGS_SNOOZE_KEY, settings.getSnoozeMinutes());
@@ -415,8 +460,8 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
 
             outState.putString(SETTINGS_NAME_KEY, info.getName());
 
-            outState.putBooleanArray(SETTINGS_DAYS_OF_WEEK_KEY,
-                    info.getTime().getDaysOfWeek().bitmask());
+            outState.putInt(SETTINGS_DAYS_OF_WEEK_KEY,
+                    info.getTime().getDaysOfWeek().mask());
         }
 
         outState.putParcelable(SETTINGS_TONE_URI_KEY, settings.getTone());
@@ -453,25 +498,57 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
     }
 
     private void saveAlarmSettings() {
+        // Nothing can have changed if the settings never finished loading.
+        if (!settingsLoaded) {
+            return;
+        }
+
+        // The writes run after this activity has finished, and so after it
+        // has unbound from the service.
+        final Context c = getApplicationContext();
+        final long savedAlarmId = alarmId;
+
         // Write AlarmInfo if it changed.
         if (originalInfo != null && !originalInfo.equals(info)) {
-            db.writeAlarmInfo(alarmId, info);
-
             // Explicitly enable the alarm if the user changed the time.
             // This will reschedule the alarm if it was already enabled.
             // It's also probably the right thing to do if the alarm wasn't
             // enabled.
-            if (!originalInfo.getTime().equals(info.getTime())) {
-                service.scheduleAlarm(alarmId);
-            } else if (originalInfo.enabled()
-                    && !originalInfo.getName().equals(info.getName())) {
-                service.scheduleAlarm(alarmId);
-            }
+            final boolean reschedule =
+                    !originalInfo.getTime().equals(info.getTime())
+                    || (originalInfo.enabled()
+                            && !originalInfo.getName().equals(info.getName()));
+            final AlarmInfo savedInfo = new AlarmInfo(info);
+
+            asyncDb.write(new AsyncDbAccessor.Operation<Boolean>() {
+                @Override
+                public Boolean run(DbAccessor db) {
+                    boolean written = db.writeAlarmInfo(savedAlarmId, savedInfo);
+                    if (written && reschedule) {
+                        Intent schedule = new Intent(c, AlarmClockService.class);
+                        schedule.putExtra(AlarmClockService.COMMAND_EXTRA,
+                                AlarmClockService.COMMAND_SCHEDULE_ALARM);
+                        schedule.setData(AlarmUtil.alarmIdToUri(savedAlarmId));
+                        c.startService(schedule);
+                    }
+                    return written;
+                }
+            }, null);
         }
 
         // Write AlarmSettings if they have changed.
         if (!originalSettings.equals(settings)) {
-            db.writeAlarmSettings(alarmId, settings);
+            final AlarmSettings savedSettings = new AlarmSettings(settings);
+
+            asyncDb.write(new AsyncDbAccessor.Operation<Boolean>() {
+                @Override
+                public Boolean run(DbAccessor db) {
+                    boolean written =
+                            db.writeAlarmSettings(savedAlarmId, savedSettings);
+                    ToneVerifier.verifyAsync(c);
+                    return written;
+                }
+            }, null);
         }
     }
 
@@ -685,6 +762,12 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
     @NonNull
     @Override
     public Dialog onCreateDialog(Bundle savedInstanceState) {
+      // The settings are loaded in the background, so a dialog restored
+      // before they have ever arrived has nothing to show.
+      if (settings == null) {
+        dismissAllowingStateLoss();
+        return super.onCreateDialog(savedInstanceState);
+      }
       switch (getArguments().getInt("id")) {
           case NAME_PICKER:
               final View nameView = View.inflate(getActivity(),
@@ -719,10 +802,11 @@ public final class ActivityAlarmSettings extends AppCompatActivity implements
                       new OnMultiChoiceClickListener() {
                           @Override
                           public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                              Week week = info.getTime().getDaysOfWeek();
                               if (isChecked) {
-                                  info.getTime().getDaysOfWeek().addDay(Week.Day.values()[which]);
+                                  info.setDaysOfWeek(week.withDay(Week.day(which)));
                               } else {
-                                  info.getTime().getDaysOfWeek().removeDay(Week.Day.values()[which]);
+                                  info.setDaysOfWeek(week.withoutDay(Week.day(which)));
                               }
                               settingsAdapter.notifyDataSetChanged();
                           }
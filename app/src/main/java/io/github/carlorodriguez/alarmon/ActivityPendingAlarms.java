@@ -20,6 +20,7 @@ import android.content.ComponentName;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.support.v7.app.AppCompatActivity;
@@ -33,6 +34,8 @@ import android.widget.ListView;
 public final class ActivityPendingAlarms extends AppCompatActivity {
   boolean connected;
   private ListView listView;
+  private AlarmClockInterface clock;
+  private Handler handler;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -44,6 +47,7 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
     setTitle(R.string.pending_alarms);
 
     connected = false;
+    handler = new Handler();
     listView = (ListView) findViewById(R.id.pending_alarm_list);
   }
 
@@ -60,7 +64,14 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
   protected void onPause() {
     super.onPause();
     if (connected) {
+      try {
+        clock.unregisterListener(listener);
+      } catch (RemoteException e) {
+        e.printStackTrace();
+      }
       unbindService(connection);
+      connected = false;
+      clock = null;
     }
   }
 
@@ -68,19 +79,46 @@ public final class ActivityPendingAlarms extends AppCompatActivity {
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
       connected = true;
-      AlarmClockInterface clock = AlarmClockInterface.Stub.asInterface(service);
+      clock = AlarmClockInterface.Stub.asInterface(service);
       try {
-        ArrayAdapter<AlarmTime> adapter = new ArrayAdapter<>(
-            getApplicationContext(), R.layout.pending_alarms_item, clock.pendingAlarmTimes());
-        listView.setAdapter(adapter);
+        clock.registerListener(listener);
       } catch (RemoteException e) {
         e.printStackTrace();
       }
+      reload();
     }
 
     @Override
     public void onServiceDisconnected(ComponentName name) {
       connected = false;
+      clock = null;
     }
   };
+
+  // Reload the whole list whenever the schedule changes; this is a debugging
+  // aid, so there is no point in being clever about it.
+  private final AlarmClockListener listener = new AlarmClockListener.Stub() {
+    @Override
+    public void onAlarmsChanged(long[] alarmIds) {
+      handler.post(new Runnable() {
+        @Override
+        public void run() {
+          reload();
+        }
+      });
+    }
+  };
+
+  private void reload() {
+    if (clock == null) {
+      return;
+    }
+    try {
+      ArrayAdapter<AlarmTime> adapter = new ArrayAdapter<>(
+          getApplicationContext(), R.layout.pending_alarms_item, clock.pendingAlarmTimes());
+      listView.setAdapter(adapter);
+    } catch (RemoteException e) {
+      e.printStackTrace();
+    }
+  }
 }
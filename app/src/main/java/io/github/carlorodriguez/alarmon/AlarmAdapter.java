@@ -16,12 +16,19 @@ import android.widget.CompoundButton;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewHolder> {
 
     private ArrayList<AlarmInfo> alarmInfos;
     private AlarmClockServiceBinder service;
     private Context context;
+    // Pending (alarm id, epoch-millis) pairs sorted by id, fetched from the
+    // service in one call.  Null when it has to be fetched again.
+    private long[] pendingMillis;
+    // Bumped whenever alarmInfos changes, so that a diff computed against an
+    // older snapshot of the list can be detected and discarded.
+    private int version;
 
     public AlarmAdapter(ArrayList<AlarmInfo> alarmInfos,
             AlarmClockServiceBinder service, Context context) {
@@ -34,8 +41,110 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
         return alarmInfos;
     }
 
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Forgets the pending alarm times so that they are fetched from the
+     * service again when the next row is bound.
+     */
+    public void invalidatePendingAlarms() {
+        pendingMillis = null;
+    }
+
+    /**
+     * Called when the service reports that these alarms changed.  Their
+     * pending times may have moved even if nothing stored in the database
+     * did (a snooze, for instance), so their rows are bound again.
+     */
+    public void onAlarmsChanged(long[] alarmIds) {
+        invalidatePendingAlarms();
+
+        for (int i = 0; i < alarmInfos.size(); ++i) {
+            if (Arrays.binarySearch(alarmIds, alarmInfos.get(i).getAlarmId()) >= 0) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    /**
+     * @return The epoch-millis at which this alarm is scheduled to fire, or
+     *     -1 if it is not scheduled or the service is not bound.
+     */
+    private long pendingMillis(long alarmId) {
+        if (pendingMillis == null) {
+            if (service.clock() == null) {
+                return -1;
+            }
+            try {
+                pendingMillis = service.clock().pendingAlarmMillis();
+            } catch (RemoteException e) {
+                e.printStackTrace();
+                return -1;
+            }
+        }
+
+        int low = 0;
+        int high = pendingMillis.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = pendingMillis[2 * mid];
+            if (midId < alarmId) {
+                low = mid + 1;
+            } else if (midId > alarmId) {
+                high = mid - 1;
+            } else {
+                return pendingMillis[2 * mid + 1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the list with one that was diffed against the current list,
+     * notifying only the rows which actually changed.
+     */
+    public void update(ArrayList<AlarmInfo> alarmInfos, AlarmListDiff diff) {
+        this.alarmInfos = alarmInfos;
+        version++;
+
+        diff.dispatchTo(new AlarmListDiff.Callback() {
+            @Override
+            public void onRemoved(int position) {
+                notifyItemRemoved(position);
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                notifyItemMoved(fromPosition, toPosition);
+            }
+
+            @Override
+            public void onInserted(int position) {
+                notifyItemInserted(position);
+            }
+
+            @Override
+            public void onChanged(int position) {
+                notifyItemChanged(position);
+            }
+        });
+    }
+
+    /**
+     * Replaces the list and rebinds every row.
+     */
+    public void setAlarmInfos(ArrayList<AlarmInfo> alarmInfos) {
+        this.alarmInfos = alarmInfos;
+        version++;
+
+        notifyDataSetChanged();
+    }
+
     public void removeAt(int position) {
         alarmInfos.remove(position);
+        version++;
 
         notifyItemRemoved(position);
 
@@ -50,25 +159,23 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
                 alarmInfos.remove(0);
             }
 
+            version++;
+
             this.notifyItemRangeRemoved(0, size);
         }
     }
 
     @Override
-    public void onBindViewHolder(ContentViewHolder holder, final int position) {
+    public void onBindViewHolder(final ContentViewHolder holder, int position) {
         final AlarmInfo info = alarmInfos.get(position);
 
-        AlarmTime time = null;
+        AlarmTime time;
         // See if there is an instance of this alarm scheduled.
-        if (service.clock() != null) {
-            try {
-                time = service.clock().pendingAlarm(info.getAlarmId());
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
-        // If we couldn't find a pending alarm, display the configured time.
-        if (time == null) {
+        long pending = pendingMillis(info.getAlarmId());
+        if (pending >= 0) {
+            time = AlarmTime.fromMillis(pending);
+        } else {
+            // If we couldn't find a pending alarm, display the configured time.
             time = info.getTime();
         }
 
@@ -85,16 +192,28 @@ public class AlarmAdapter extends RecyclerView.Adapter<AlarmAdapter.ContentViewH
 
         holder.labelView.setText(info.getName());
 
-        if (!info.getTime().getDaysOfWeek().equals(Week.NO_REPEATS)) {
+        if (info.getTime().repeats()) {
             holder.repeatView.setText(info.getTime().getDaysOfWeek().
                     toString(context));
+        } else {
+            holder.repeatView.setText("");
         }
 
+        // Rows are rebound in place, so detach the listener of the previous
+        // binding before restoring the checked state.
+        holder.enabledView.setOnCheckedChangeListener(null);
+
         holder.enabledView.setChecked(info.enabled());
 
         holder.enabledView.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
             @Override
             public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                int position = holder.getAdapterPosition();
+
+                if (position == RecyclerView.NO_POSITION) {
+                    return;
+                }
+
                 final AlarmInfo info = alarmInfos.get(position);
 
                 if (isChecked) {
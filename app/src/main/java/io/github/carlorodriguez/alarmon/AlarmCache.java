@@ -0,0 +1,128 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import android.support.v4.util.LongSparseArray;
+
+/**
+ * A process wide cache of alarm rows and alarm settings keyed by alarm id.
+ * It sits behind DbAccessor, which fills it on reads and writes through it
+ * on every update, so repeated lookups of the same alarm never touch the
+ * disk.  Ids known to have no row are cached as well.  Callers always get
+ * their own copy since AlarmInfo and AlarmSettings are mutable.
+ */
+public final class AlarmCache {
+  // Stands in for an id which is known not to exist in the database.
+  private static final Object MISSING = new Object();
+
+  private static final LongSparseArray<Object> alarms = new LongSparseArray<>();
+  private static final LongSparseArray<Object> settings = new LongSparseArray<>();
+
+  private static long hits;
+  private static long misses;
+
+  private AlarmCache() {}
+
+  /**
+   * Result of a cache lookup.  When found is false the database has to be
+   * consulted.  When found is true, a null value means there is no row.
+   */
+  public static final class Entry<T> {
+    public final boolean found;
+    public final T value;
+
+    private Entry(boolean found, T value) {
+      this.found = found;
+      this.value = value;
+    }
+  }
+
+  private static final Entry<?> UNKNOWN = new Entry<>(false, null);
+  private static final Entry<?> ABSENT = new Entry<>(true, null);
+
+  public static synchronized Entry<AlarmInfo> getAlarm(long alarmId) {
+    Object cached = alarms.get(alarmId);
+    if (cached == null) {
+      misses++;
+      return unknown();
+    }
+    hits++;
+    if (cached == MISSING) {
+      return absent();
+    }
+    // The next occurrence is derived from the current time, so build a
+    // fresh AlarmTime rather than handing out the one computed when the row
+    // was cached.
+    AlarmInfo info = new AlarmInfo((AlarmInfo) cached);
+    AlarmTime time = info.getTime();
+    info.setTime(new AlarmTime(time.secondsAfterMidnight(), time.getDaysOfWeek()));
+    return new Entry<>(true, info);
+  }
+
+  public static synchronized void putAlarm(long alarmId, AlarmInfo info) {
+    alarms.put(alarmId, info == null ? MISSING : new AlarmInfo(info));
+  }
+
+  public static synchronized void putAlarmEnabled(long alarmId, boolean enabled) {
+    Object cached = alarms.get(alarmId);
+    if (cached != null && cached != MISSING) {
+      ((AlarmInfo) cached).setEnabled(enabled);
+    }
+  }
+
+  public static synchronized void forgetAlarm(long alarmId) {
+    alarms.remove(alarmId);
+  }
+
+  public static synchronized Entry<AlarmSettings> getSettings(long alarmId) {
+    Object cached = settings.get(alarmId);
+    if (cached == null) {
+      misses++;
+      return unknown();
+    }
+    hits++;
+    if (cached == MISSING) {
+      return absent();
+    }
+    return new Entry<>(true, new AlarmSettings((AlarmSettings) cached));
+  }
+
+  public static synchronized void putSettings(long alarmId, AlarmSettings value) {
+    settings.put(alarmId, value == null ? MISSING : new AlarmSettings(value));
+  }
+
+  public static synchronized void forgetSettings(long alarmId) {
+    settings.remove(alarmId);
+  }
+
+  public static synchronized long hits() {
+    return hits;
+  }
+
+  public static synchronized long misses() {
+    return misses;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Entry<T> unknown() {
+    return (Entry<T>) UNKNOWN;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Entry<T> absent() {
+    return (Entry<T>) ABSENT;
+  }
+}
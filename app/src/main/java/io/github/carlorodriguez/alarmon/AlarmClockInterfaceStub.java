@@ -38,6 +38,23 @@ public final class AlarmClockInterfaceStub extends AlarmClockInterface.Stub {
     return service.pendingAlarmTimes();
   }
 
+  @Override
+  public long[] pendingAlarmMillis() throws RemoteException {
+    return service.pendingAlarmMillis();
+  }
+
+  @Override
+  public void registerListener(AlarmClockListener listener)
+      throws RemoteException {
+    service.registerListener(listener);
+  }
+
+  @Override
+  public void unregisterListener(AlarmClockListener listener)
+      throws RemoteException {
+    service.unregisterListener(listener);
+  }
+
   @Override
   public long resurrectAlarm(AlarmTime time, String alarmName, boolean enabled)
       throws RemoteException {
@@ -63,6 +80,26 @@ public final class AlarmClockInterfaceStub extends AlarmClockInterface.Stub {
     service.deleteAllAlarms();
   }
 
+  @Override
+  public long[] createAlarms(AlarmTime[] times) throws RemoteException {
+    debugToast("CREATE " + times.length + " ALARMS");
+    return service.createAlarms(times);
+  }
+
+  @Override
+  public void enableAlarms(long[] alarmIds, boolean enabled)
+      throws RemoteException {
+    debugToast((enabled ? "SCHEDULE " : "UNSCHEDULE ") + alarmIds.length
+        + " ALARMS");
+    service.enableAlarms(alarmIds, enabled);
+  }
+
+  @Override
+  public void deleteAlarms(long[] alarmIds) throws RemoteException {
+    debugToast("DELETE " + alarmIds.length + " ALARMS");
+    service.deleteAlarms(alarmIds);
+  }
+
   @Override
   public void scheduleAlarm(long alarmId) throws RemoteException {
     debugToast("SCHEDULE ALARM " + alarmId);
@@ -15,7 +15,10 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import android.app.Notification;
@@ -27,30 +30,70 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.content.pm.PackageManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.RemoteCallbackList;
+import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.Settings;
+import android.util.Log;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 import android.widget.Toast;
 
-import org.apache.commons.lang3.text.StrSubstitutor;
-
 public final class AlarmClockService extends Service {
   public final static String COMMAND_EXTRA = "command";
   public final static int COMMAND_UNKNOWN = 1;
   public final static int COMMAND_NOTIFICATION_REFRESH = 2;
   public final static int COMMAND_DEVICE_BOOT = 3;
   public final static int COMMAND_TIMEZONE_CHANGE = 4;
+  public final static int COMMAND_ALARMS_DUE = 5;
+  // Schedules the alarm in the intent data, for callers which are not bound.
+  public final static int COMMAND_SCHEDULE_ALARM = 6;
 
   public final static int NOTIFICATION_BAR_ID = 69;
 
+  private static final String TAG = "AlarmClockService";
+
   private DbAccessor db;
+  private AsyncDbAccessor asyncDb;
   private PendingAlarmList pendingAlarms;
+  // SystemClock.elapsedRealtime() when the enabled alarms were armed.
+  private long armedElapsedRealtime;
+  // Start commands received before the enabled alarms were armed, run once
+  // they are.  Null after that.
+  private ArrayList<Intent> deferredCommands = new ArrayList<>();
+
+  // Bound clients which want to hear about schedule changes.
+  private final RemoteCallbackList<AlarmClockListener> listeners =
+      new RemoteCallbackList<>();
+  // Alarms changed since the last broadcast.  Guarded by itself, since the
+  // binder calls which make the changes may arrive on any thread.
+  private final HashSet<Long> changedAlarmIds = new HashSet<>();
+  private boolean changeBroadcastPosted;
+  private Handler handler;
+
+  // What the notification currently shows, see refreshNotification().
+  private boolean notificationPublished;
+  private boolean publishedVisible;
+  private long publishedAlarmId;
+  private String publishedTitle;
+  private String publishedText;
+  private long skippedRefreshes;
+  private long publishedRefreshes;
+
+  // Whose tone was last prepared, see prepareNextTone().
+  private long preparedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
+  private long preparedSettingsGeneration;
+  // A prepared player holds on to a decoder and buffers, so it is only
+  // kept for an alarm due within this long.
+  private static final long PREPARE_AHEAD_MILLIS =
+      AlarmUtil.Interval.HOUR.millis();
 
   @Override
   public void onCreate() {
@@ -66,36 +109,84 @@ public final class AlarmClockService extends Service {
                   Environment.getExternalStorageDirectory().getPath()));
     }
 
+    handler = new Handler();
+
     // Access to in-memory and persistent data structures.
-    db = new DbAccessor(getApplicationContext());
+    db = DbAccessor.acquire(getApplicationContext());
+    asyncDb = new AsyncDbAccessor(getApplicationContext());
     pendingAlarms = new PendingAlarmList(getApplicationContext());
 
-    // Schedule enabled alarms during initial startup.
-    for (Long alarmId : db.getEnabledAlarms()) {
-      if (pendingAlarms.pendingTime(alarmId) != null) {
-        continue;
+    // Schedule enabled alarms during initial startup.  A single query reads
+    // every enabled alarm with its settings in the background, and they are
+    // armed in one pass when it returns.
+    asyncDb.read(new AsyncDbAccessor.Operation<List<AlarmInfo>>() {
+      @Override
+      public List<AlarmInfo> run(DbAccessor db) {
+        return db.readEnabledAlarms();
       }
-      if (AppSettings.isDebugMode(getApplicationContext())) {
-        Toast.makeText(getApplicationContext(), "RENABLE " + alarmId, Toast.LENGTH_SHORT).show();
+    }, new AsyncDbAccessor.Callback<List<AlarmInfo>>() {
+      @Override
+      public void onResult(List<AlarmInfo> enabled) {
+        armEnabledAlarms(enabled);
       }
 
-        AlarmTime alarmTime = null;
+      @Override
+      public void onFailure(RuntimeException e) {
+        // Not arming the alarms is worse than blocking for them.
+        armEnabledAlarms(db.readEnabledAlarms());
+      }
+    });
 
-        AlarmInfo info = db.readAlarmInfo(alarmId);
+    ReceiverNotificationRefresh.startRefreshing(getApplicationContext());
+    ToneVerifier.schedule(getApplicationContext());
+  }
 
-        if (info != null) {
-            alarmTime = info.getTime();
-        }
+  private void armEnabledAlarms(List<AlarmInfo> enabled) {
+    long[] alarmIds = new long[enabled.size()];
+    AlarmTime[] alarmTimes = new AlarmTime[enabled.size()];
+    int count = 0;
+    for (AlarmInfo info : enabled) {
+      alarmIds[count] = info.getAlarmId();
+      alarmTimes[count] = info.getTime();
+      count++;
+    }
+    long[] armed = pendingAlarms.restore(alarmIds, alarmTimes);
+    // Time since boot, which is the boot-to-armed latency when the service
+    // was started by ReceiverDeviceBoot.
+    armedElapsedRealtime = SystemClock.elapsedRealtime();
+    Log.i(TAG, "Armed " + armed.length + " alarms "
+        + armedElapsedRealtime + "ms after boot");
+    if (AppSettings.isDebugMode(getApplicationContext())) {
+      Toast.makeText(getApplicationContext(), "RENABLED " + armed.length
+          + " ALARMS", Toast.LENGTH_SHORT).show();
+    }
+    refreshNotification();
+    notifyAlarmsChanged(armed);
 
-      pendingAlarms.put(alarmId, alarmTime);
+    ArrayList<Intent> commands = deferredCommands;
+    deferredCommands = null;
+    for (Intent intent : commands) {
+      handleStart(intent);
     }
+  }
 
-    ReceiverNotificationRefresh.startRefreshing(getApplicationContext());
+  /**
+   * @return SystemClock.elapsedRealtime() when the enabled alarms were armed
+   *     after the service started, or 0 if they haven't been yet.
+   */
+  public long armedElapsedRealtime() {
+    return armedElapsedRealtime;
   }
 
   @Override
   public int onStartCommand(Intent intent, int flags, int startId) {
-    handleStart(intent);
+    // A wakeup in particular needs every alarm in place to find the others
+    // due with it.
+    if (deferredCommands != null) {
+      deferredCommands.add(intent);
+    } else {
+      handleStart(intent);
+    }
     return START_STICKY;
   }
 
@@ -120,6 +211,10 @@ public final class AlarmClockService extends Service {
           handler.post(maybeShutdown);
           break;
         case COMMAND_DEVICE_BOOT:
+          if (AppSettings.isDebugMode(getApplicationContext())) {
+            Toast.makeText(getApplicationContext(), "ALARMS ARMED "
+                + armedElapsedRealtime + "ms AFTER BOOT", Toast.LENGTH_SHORT).show();
+          }
           fixPersistentSettings();
           handler.post(maybeShutdown);
           break;
@@ -135,79 +230,215 @@ public final class AlarmClockService extends Service {
           }
           handler.post(maybeShutdown);
           break;
+        case COMMAND_ALARMS_DUE:
+          deliverDueAlarms(AlarmUtil.alarmUriToId(intent.getData()),
+              intent.getLongExtra(PendingAlarmList.EXTRA_DUE_MILLIS,
+                  System.currentTimeMillis()));
+          handler.post(maybeShutdown);
+          break;
+        case COMMAND_SCHEDULE_ALARM:
+          scheduleAlarm(AlarmUtil.alarmUriToId(intent.getData()));
+          handler.post(maybeShutdown);
+          break;
         default:
           throw new IllegalArgumentException("Unknown service command.");
       }
     }
   }
 
+  // The ReceiverAlarm has already woken up the NotificationService for the
+  // alarm that fired.  Do the same for every other alarm due in the same
+  // window; each of them needs its own wake lock.
+  private void deliverDueAlarms(long firedAlarmId, long firedTime) {
+    Context c = getApplicationContext();
+    long[] due = pendingAlarms.deliverDue(firedAlarmId, firedTime,
+        System.currentTimeMillis());
+    notifyAlarmsChanged(due);
+    for (long alarmId : due) {
+      if (alarmId == firedAlarmId) {
+        continue;
+      }
+      try {
+        WakeLock.acquire(c, alarmId);
+      } catch (WakeLock.WakeLockException e) {
+        if (AppSettings.isDebugMode(c)) {
+          throw new IllegalStateException(e.getMessage());
+        }
+      }
+      Intent notifyService = new Intent(c, NotificationService.class);
+      notifyService.setData(AlarmUtil.alarmIdToUri(alarmId));
+      startService(notifyService);
+    }
+    refreshNotification();
+  }
+
   private void refreshNotification() {
       String resolvedString = getString(R.string.no_pending_alarms);
 
       AlarmTime nextTime = pendingAlarms.nextAlarmTime();
 
       if (nextTime != null) {
-          Map<String, String> values = new HashMap<>();
-
-          values.put("t", nextTime.localizedString(getApplicationContext()));
-
-          values.put("c", nextTime.timeUntilString(getApplicationContext()));
-
-          String templateString = AppSettings.getNotificationTemplate(
-                  getApplicationContext());
-
-          StrSubstitutor sub = new StrSubstitutor(values);
-
-          resolvedString = sub.replace(templateString);
+          resolvedString = AppSettings.getCompiledNotificationTemplate(
+                  getApplicationContext()).render(
+                  nextTime.localizedString(getApplicationContext()),
+                  nextTime.coarseTimeUntilString(getApplicationContext()));
       }
 
-    // Make the notification launch the UI Activity when clicked.
-    final Intent notificationIntent = new Intent(this, ActivityAlarmClock.class);
-    final PendingIntent launch = PendingIntent.getActivity(this, 0,
-        notificationIntent, 0);
-
     Context c = getApplicationContext();
 
-      NotificationCompat.Builder builder = new NotificationCompat.Builder(
-              getApplicationContext());
-
       String notificationTitle = getString(R.string.app_name);
 
-      if (pendingAlarms.nextAlarmId() != AlarmClockServiceBinder.NO_ALARM_ID) {
-          DbAccessor db = new DbAccessor(getApplicationContext());
+      long nextAlarmId = pendingAlarms.nextAlarmId();
 
-          AlarmInfo alarmInfo = db.readAlarmInfo(pendingAlarms.nextAlarmId());
+      if (nextAlarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
+          AlarmInfo alarmInfo = db.readAlarmInfo(nextAlarmId);
 
           if (alarmInfo != null) {
               notificationTitle = alarmInfo.getName() != null && !alarmInfo.getName().isEmpty()
                       ? alarmInfo.getName()
                       : getString(R.string.app_name);
           }
-
-          db.closeConnections();
       }
 
-      Notification notification = builder
+    final boolean visible =
+        pendingAlarms.size() > 0 && AppSettings.displayNotificationIcon(c);
+
+    // Most refreshes are the minute tick and change nothing the user can
+    // see, so only talk to the NotificationManager when something did.
+    if (notificationPublished && visible == publishedVisible
+        && nextAlarmId == publishedAlarmId
+        && notificationTitle.equals(publishedTitle)
+        && resolvedString.equals(publishedText)) {
+      skippedRefreshes++;
+      setSystemAlarmStringOnLockScreen(c, nextTime);
+      scheduleNextRefresh(visible, nextTime);
+      prepareNextTone();
+      return;
+    }
+    notificationPublished = true;
+    publishedVisible = visible;
+    publishedAlarmId = nextAlarmId;
+    publishedTitle = notificationTitle;
+    publishedText = resolvedString;
+    publishedRefreshes++;
+
+    final NotificationManager manager =
+      (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+    if (visible) {
+      // Make the notification launch the UI Activity when clicked.
+      final Intent notificationIntent = new Intent(this, ActivityAlarmClock.class);
+      final PendingIntent launch = PendingIntent.getActivity(this, 0,
+          notificationIntent, 0);
+
+      Notification notification = new NotificationCompat.Builder(c)
               .setContentIntent(launch)
               .setSmallIcon(R.drawable.ic_stat_notify_alarm)
               .setContentTitle(notificationTitle)
               .setContentText(resolvedString)
-              .setColor(ContextCompat.getColor(getApplicationContext(),
+              .setColor(ContextCompat.getColor(c,
                       R.color.notification_color))
               .build();
       notification.flags |= Notification.FLAG_ONGOING_EVENT;
 
-    final NotificationManager manager =
-      (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-    if (pendingAlarms.size() > 0 && AppSettings.displayNotificationIcon(c)) {
       manager.notify(NOTIFICATION_BAR_ID, notification);
     } else {
       manager.cancel(NOTIFICATION_BAR_ID);
     }
 
-    setSystemAlarmStringOnLockScreen(getApplicationContext(), nextTime);
+    setSystemAlarmStringOnLockScreen(c, nextTime);
+    scheduleNextRefresh(visible, nextTime);
+    prepareNextTone();
+  }
+
+  // Keep the tone of whichever alarm is next prepared, so that it can start
+  // as soon as the alarm fires.  The tone is only looked up again, in the
+  // background, when the next alarm or some alarm settings have changed, and
+  // the player is released when there is no alarm due within
+  // PREPARE_AHEAD_MILLIS.  If one is due later, this runs again when it
+  // comes within reach; should the device sleep through that, the tone is
+  // loaded when the alarm fires instead.
+  private void prepareNextTone() {
+    handler.removeCallbacks(prepareNextToneTask);
+    final long alarmId = pendingAlarms.nextAlarmId();
+    long untilNext = alarmId == AlarmClockServiceBinder.NO_ALARM_ID ? 0
+        : pendingAlarms.nextAlarmTime().millis() - System.currentTimeMillis();
+    if (alarmId == AlarmClockServiceBinder.NO_ALARM_ID
+        || untilNext > PREPARE_AHEAD_MILLIS) {
+      if (preparedAlarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
+        preparedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
+        NotificationService.releaseTone();
+      }
+      if (alarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
+        handler.postDelayed(prepareNextToneTask,
+            untilNext - PREPARE_AHEAD_MILLIS);
+      }
+      return;
+    }
+    long generation = DbAccessor.settingsGeneration();
+    if (alarmId == preparedAlarmId
+        && generation == preparedSettingsGeneration) {
+      return;
+    }
+    preparedAlarmId = alarmId;
+    preparedSettingsGeneration = generation;
+
+    final Context c = getApplicationContext();
+    asyncDb.read(new AsyncDbAccessor.Operation<Uri>() {
+      @Override
+      public Uri run(DbAccessor db) {
+        return ToneVerifier.playableTone(c,
+            db.readAlarmSettings(alarmId).getTone());
+      }
+    }, new AsyncDbAccessor.Callback<Uri>() {
+      @Override
+      public void onResult(Uri tone) {
+        // Unless another alarm has become next meanwhile.
+        if (alarmId == preparedAlarmId) {
+          NotificationService.prepareTone(c, tone);
+        }
+      }
+
+      @Override
+      public void onFailure(RuntimeException e) {
+        // Try again on the next refresh.
+        if (alarmId == preparedAlarmId) {
+          preparedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
+        }
+      }
+    });
   }
 
+  private void scheduleNextRefresh(boolean visible, AlarmTime nextTime) {
+    // Before Lollipop the countdown is also on the lock screen, which has
+    // to be kept current even without the notification.
+    if (nextTime != null
+        && (visible || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)) {
+      ReceiverNotificationRefresh.scheduleRefresh(getApplicationContext(),
+          nextTime.millis());
+    } else {
+      ReceiverNotificationRefresh.stopRefreshing(getApplicationContext());
+    }
+  }
+
+  /**
+   * @return How many notification refreshes changed nothing and were not
+   *     passed on to the NotificationManager.
+   */
+  public long skippedRefreshes() {
+    return skippedRefreshes;
+  }
+
+  /**
+   * @return How many notification refreshes were published.
+   */
+  public long publishedRefreshes() {
+    return publishedRefreshes;
+  }
+
+    // The last text written to Settings.System, so that the minute tick does
+    // not rewrite the same value.  Guarded by AlarmClockService.class.
+    private static String lockScreenText;
+
     @SuppressWarnings("deprecation")
     public static void setSystemAlarmStringOnLockScreen(Context context,
             AlarmTime alarmTime) {
@@ -216,6 +447,13 @@ public final class AlarmClockService extends Service {
                     context, alarmTime);
 
             if (lockScreenText != null) {
+                synchronized (AlarmClockService.class) {
+                    if (lockScreenText.equals(AlarmClockService.lockScreenText)) {
+                        return;
+                    }
+                    AlarmClockService.lockScreenText = lockScreenText;
+                }
+
                 Settings.System.putString(context.getContentResolver(),
                         Settings.System.NEXT_ALARM_FORMATTED, lockScreenText);
             }
@@ -255,13 +493,24 @@ public final class AlarmClockService extends Service {
   @Override
   public void onDestroy() {
     super.onDestroy();
-    db.closeConnections();
+    asyncDb.cancel();
+    db.release();
+
+    if (preparedAlarmId != AlarmClockServiceBinder.NO_ALARM_ID) {
+      preparedAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
+      NotificationService.releaseTone();
+    }
+
+    handler.removeCallbacks(prepareNextToneTask);
+    handler.removeCallbacks(broadcastAlarmsChanged);
+    listeners.kill();
 
     ReceiverNotificationRefresh.stopRefreshing(getApplicationContext());
 
     final NotificationManager manager =
       (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
     manager.cancel(NOTIFICATION_BAR_ID);
+    notificationPublished = false;
 
       setSystemAlarmStringOnLockScreen(getApplicationContext(), null);
   }
@@ -286,6 +535,66 @@ public final class AlarmClockService extends Service {
     return true;
   }
 
+  public void registerListener(AlarmClockListener listener) {
+    listeners.register(listener);
+  }
+
+  public void unregisterListener(AlarmClockListener listener) {
+    listeners.unregister(listener);
+  }
+
+  /**
+   * Tells the registered listeners that these alarms were created, deleted,
+   * enabled, disabled or rescheduled.  Changes are collected and broadcast
+   * once from the main thread, so a burst of calls results in one event.
+   */
+  private void notifyAlarmsChanged(long... alarmIds) {
+    synchronized (changedAlarmIds) {
+      for (long alarmId : alarmIds) {
+        changedAlarmIds.add(alarmId);
+      }
+      if (changeBroadcastPosted) {
+        return;
+      }
+      changeBroadcastPosted = true;
+    }
+    handler.post(broadcastAlarmsChanged);
+  }
+
+  private final Runnable prepareNextToneTask = new Runnable() {
+    @Override
+    public void run() {
+      prepareNextTone();
+    }
+  };
+
+  private final Runnable broadcastAlarmsChanged = new Runnable() {
+    @Override
+    public void run() {
+      long[] alarmIds;
+      synchronized (changedAlarmIds) {
+        alarmIds = new long[changedAlarmIds.size()];
+        int i = 0;
+        for (Long alarmId : changedAlarmIds) {
+          alarmIds[i++] = alarmId;
+        }
+        changedAlarmIds.clear();
+        changeBroadcastPosted = false;
+      }
+      Arrays.sort(alarmIds);
+
+      int count = listeners.beginBroadcast();
+      for (int i = 0; i < count; ++i) {
+        try {
+          listeners.getBroadcastItem(i).onAlarmsChanged(alarmIds);
+        } catch (RemoteException e) {
+          // The RemoteCallbackList takes care of removing dead listeners.
+        }
+      }
+      listeners.finishBroadcast();
+    }
+  };
+
   public AlarmTime pendingAlarm(long alarmId) {
     return pendingAlarms.pendingTime(alarmId);
   }
@@ -294,11 +603,17 @@ public final class AlarmClockService extends Service {
     return pendingAlarms.pendingTimes();
   }
 
+  public long[] pendingAlarmMillis() {
+    return pendingAlarms.pendingMillis();
+  }
+
     public long resurrectAlarm(AlarmTime time, String alarmName, boolean enabled) {
         long alarmId =  db.newAlarm(time, enabled, alarmName);
 
         if (enabled) {
             scheduleAlarm(alarmId);
+        } else {
+            notifyAlarmsChanged(alarmId);
         }
 
         return alarmId;
@@ -316,12 +631,88 @@ public final class AlarmClockService extends Service {
         db.deleteAlarm(alarmId);
 
         refreshNotification();
+
+        notifyAlarmsChanged(alarmId);
     }
 
   public void deleteAllAlarms() {
-    for (Long alarmId : db.getAllAlarms()) {
-      deleteAlarm(alarmId);
+    List<Long> alarms = db.getAllAlarms();
+    long[] alarmIds = new long[alarms.size()];
+    int i = 0;
+    for (Long alarmId : alarms) {
+      alarmIds[i++] = alarmId;
+    }
+    deleteAlarms(alarmIds);
+  }
+
+  /**
+   * Creates and schedules an enabled alarm for each time.  The database is
+   * written in one transaction, the AlarmManager is updated once and the
+   * notification is refreshed once.
+   * @return The ids of the new alarms, in the order of times.
+   */
+  public long[] createAlarms(AlarmTime[] times) {
+    long[] alarmIds = db.newAlarms(times, true, "");
+    AlarmTime[] scheduled = new AlarmTime[times.length];
+    for (int i = 0; i < times.length; ++i) {
+      // Recompute the next occurrence the same way scheduleAlarm() does when
+      // it reads the alarm back.
+      scheduled[i] = new AlarmTime(times[i].secondsAfterMidnight(),
+          times[i].getDaysOfWeek());
     }
+    pendingAlarms.putAll(alarmIds, scheduled);
+
+    final Intent self = new Intent(getApplicationContext(), AlarmClockService.class);
+    startService(self);
+
+    refreshNotification();
+    notifyAlarmsChanged(alarmIds);
+    return alarmIds;
+  }
+
+  /**
+   * Batch version of scheduleAlarm() and dismissAlarm().
+   */
+  public void enableAlarms(long[] alarmIds, boolean enabled) {
+    if (!enabled) {
+      pendingAlarms.removeAll(alarmIds);
+      db.enableAlarms(alarmIds, false);
+      refreshNotification();
+      notifyAlarmsChanged(alarmIds);
+      return;
+    }
+
+    db.enableAlarms(alarmIds, true);
+
+    int count = 0;
+    long[] scheduledIds = new long[alarmIds.length];
+    AlarmTime[] scheduledTimes = new AlarmTime[alarmIds.length];
+    for (long alarmId : alarmIds) {
+      AlarmInfo info = db.readAlarmInfo(alarmId);
+      if (info == null) {
+        continue;
+      }
+      scheduledIds[count] = alarmId;
+      scheduledTimes[count] = info.getTime();
+      count++;
+    }
+    pendingAlarms.putAll(Arrays.copyOf(scheduledIds, count),
+        Arrays.copyOf(scheduledTimes, count));
+
+    final Intent self = new Intent(getApplicationContext(), AlarmClockService.class);
+    startService(self);
+
+    refreshNotification();
+    notifyAlarmsChanged(alarmIds);
+  }
+
+  public void deleteAlarms(long[] alarmIds) {
+    pendingAlarms.removeAll(alarmIds);
+
+    db.deleteAlarms(alarmIds);
+
+    refreshNotification();
+    notifyAlarmsChanged(alarmIds);
   }
 
   public void scheduleAlarm(long alarmId) {
@@ -341,6 +732,7 @@ public final class AlarmClockService extends Service {
     startService(self);
 
     refreshNotification();
+    notifyAlarmsChanged(alarmId);
   }
 
   public void acknowledgeAlarm(long alarmId) {
@@ -358,6 +750,7 @@ public final class AlarmClockService extends Service {
       db.enableAlarm(alarmId, false);
     }
     refreshNotification();
+    notifyAlarmsChanged(alarmId);
   }
 
   public void dismissAlarm(long alarmId) {
@@ -370,6 +763,7 @@ public final class AlarmClockService extends Service {
     db.enableAlarm(alarmId, false);
 
     refreshNotification();
+    notifyAlarmsChanged(alarmId);
   }
 
   public void snoozeAlarm(long alarmId) {
@@ -386,5 +780,6 @@ public final class AlarmClockService extends Service {
     // Schedule it.
     pendingAlarms.put(alarmId, time);
     refreshNotification();
+    notifyAlarmsChanged(alarmId);
   }
 }
\ No newline at end of file
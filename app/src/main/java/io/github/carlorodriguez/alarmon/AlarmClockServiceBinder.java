@@ -34,6 +34,7 @@ public class AlarmClockServiceBinder {
   private Context context;
   private AlarmClockInterface clock;
   private LinkedList<ServiceCallback> callbacks;
+  private AlarmClockListener listener;
 
   public static final long NO_ALARM_ID = 0;
 
@@ -54,10 +55,33 @@ public class AlarmClockServiceBinder {
   }
 
   public void unbind() {
+    if (clock != null && listener != null) {
+      try {
+        clock.unregisterListener(listener);
+      } catch (RemoteException e) {
+        e.printStackTrace();
+      }
+    }
     context.unbindService(serviceConnection);
     clock = null;
   }
 
+  /**
+   * Sets the listener which is told about schedule changes while the
+   * service is bound.  It is registered every time the binding completes and
+   * unregistered by unbind().
+   */
+  public void setListener(AlarmClockListener listener) {
+    this.listener = listener;
+    if (clock != null && listener != null) {
+      try {
+        clock.registerListener(listener);
+      } catch (RemoteException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
   private interface ServiceCallback {
     void run() throws RemoteException;
   }
@@ -66,6 +90,13 @@ public class AlarmClockServiceBinder {
     @Override
     public void onServiceConnected(ComponentName name, IBinder service) {
       clock = AlarmClockInterface.Stub.asInterface(service);
+      if (listener != null) {
+        try {
+          clock.registerListener(listener);
+        } catch (RemoteException e) {
+          e.printStackTrace();
+        }
+      }
       while (callbacks.size() > 0) {
         ServiceCallback callback = callbacks.remove();
         try {
@@ -132,6 +163,33 @@ public class AlarmClockServiceBinder {
     });
   }
 
+  public void createAlarms(final AlarmTime[] times) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.createAlarms(times);
+      }
+    });
+  }
+
+  public void enableAlarms(final long[] alarmIds, final boolean enabled) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.enableAlarms(alarmIds, enabled);
+      }
+    });
+  }
+
+  public void deleteAlarms(final long[] alarmIds) {
+    runOrDefer(new ServiceCallback() {
+      @Override
+      public void run() throws RemoteException {
+        clock.deleteAlarms(alarmIds);
+      }
+    });
+  }
+
   public void scheduleAlarm(final long alarmId) {
     runOrDefer(new ServiceCallback() {
       @Override
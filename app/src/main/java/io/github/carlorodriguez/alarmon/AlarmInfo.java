@@ -15,8 +15,6 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import java.util.Calendar;
-
 import android.content.ContentValues;
 import android.database.Cursor;
 
@@ -49,6 +47,14 @@ public final class AlarmInfo {
     this.name = name;
   }
 
+  // For tests, which have no database to assign the id.
+  AlarmInfo(long alarmId, AlarmTime time, boolean enabled, String name) {
+    this.alarmId = alarmId;
+    this.time = time;
+    this.enabled = enabled;
+    this.name = name;
+  }
+
   public AlarmInfo(AlarmInfo rhs) {
     alarmId = rhs.alarmId;
     time = new AlarmTime(rhs.time);
@@ -65,15 +71,15 @@ public final class AlarmInfo {
     return alarmId == rhs.alarmId
       && time.equals(rhs.time)
       && enabled == rhs.enabled
-      && name.equals(rhs.name);
+      && (name == null ? rhs.name == null : name.equals(rhs.name));
   }
 
   public ContentValues contentValues() {
     ContentValues values = new ContentValues();
-    values.put(DbHelper.ALARMS_COL_TIME, TimeToInteger(time));
+    values.put(DbHelper.ALARMS_COL_TIME, time.secondsAfterMidnight());
     values.put(DbHelper.ALARMS_COL_ENABLED, enabled);
     values.put(DbHelper.ALARMS_COL_NAME, name);
-    values.put(DbHelper.ALARMS_COL_DAY_OF_WEEK, WeekToInteger(time));
+    values.put(DbHelper.ALARMS_COL_DAY_OF_WEEK, time.getDaysOfWeek().mask());
     return values;
   }
 
@@ -119,37 +125,7 @@ public final class AlarmInfo {
     this.name = name;
   }
 
-  private static int TimeToInteger(AlarmTime time) {
-    Calendar c = time.calendar();
-    int hourOfDay = c.get(Calendar.HOUR_OF_DAY);
-    int minute = c.get(Calendar.MINUTE);
-    int second = c.get(Calendar.SECOND);
-    return hourOfDay * 3600 + minute * 60 + second;
-  }
-
-  private static int WeekToInteger(AlarmTime time) {
-    boolean[] bitmask = time.getDaysOfWeek().bitmask();
-    int dowBitmask = 0;
-    for (Week.Day day: Week.Day.values()) {
-      if (bitmask[day.ordinal()]) {
-        dowBitmask |= 1 << day.ordinal();
-      }
-    }
-    return dowBitmask;
-  }
-
   private static AlarmTime BuildAlarmTime(int secondsAfterMidnight, int dowBitmask) {
-    int hours = secondsAfterMidnight % 3600;
-    int minutes = (secondsAfterMidnight - (hours * 3600)) % 60;
-    int seconds = (secondsAfterMidnight- (hours * 3600 + minutes * 60));
-
-    Week week = new Week();
-    for (Week.Day day : Week.Day.values()) {
-      if ((dowBitmask & 1 << day.ordinal()) > 0) {
-        week.addDay(day);
-      }
-    }
-
-    return new AlarmTime(hours, minutes, seconds, week);
+    return new AlarmTime(secondsAfterMidnight, Week.valueOf(dowBitmask));
   }
 }
@@ -0,0 +1,191 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Computes the steps that turn one list of alarms into another, matching
+ * alarms by id.  The steps are expressed the way RecyclerView expects its
+ * notifications: each position refers to the list as it stands after all
+ * of the previous steps.  Alarms are removed first, then the ones that have
+ * to move or are new are put in place (the longest run of alarms which are
+ * already in the right relative order stays put), and finally alarms whose
+ * contents differ are reported as changed.
+ *
+ * This does not touch any views, so it can run on a background thread.
+ */
+public final class AlarmListDiff {
+  public interface Callback {
+    void onRemoved(int position);
+    void onMoved(int fromPosition, int toPosition);
+    void onInserted(int position);
+    void onChanged(int position);
+  }
+
+  private static final int REMOVE = 0;
+  private static final int MOVE = 1;
+  private static final int INSERT = 2;
+  private static final int CHANGE = 3;
+
+  // Steps packed as (type, first position, second position) triples.
+  private int[] steps;
+  private int size;
+
+  private AlarmListDiff() {
+    steps = new int[3 * 8];
+    size = 0;
+  }
+
+  public static AlarmListDiff compute(List<AlarmInfo> oldList,
+      List<AlarmInfo> newList) {
+    AlarmListDiff diff = new AlarmListDiff();
+
+    HashMap<Long, Integer> newIndex = new HashMap<>(newList.size() * 2);
+    for (int i = 0; i < newList.size(); ++i) {
+      newIndex.put(newList.get(i).getAlarmId(), i);
+    }
+
+    // Remove from the end so that the positions of the earlier alarms are
+    // not disturbed.  What is left is the alarms both lists have in common,
+    // in their old order.
+    ArrayList<Long> current = new ArrayList<>(Math.max(oldList.size(), newList.size()));
+    HashMap<Long, AlarmInfo> oldInfos = new HashMap<>(oldList.size() * 2);
+    for (int i = oldList.size() - 1; i >= 0; --i) {
+      long alarmId = oldList.get(i).getAlarmId();
+      if (!newIndex.containsKey(alarmId)) {
+        diff.add(REMOVE, i, 0);
+      }
+    }
+    for (AlarmInfo info : oldList) {
+      if (newIndex.containsKey(info.getAlarmId())) {
+        current.add(info.getAlarmId());
+        oldInfos.put(info.getAlarmId(), info);
+      }
+    }
+
+    // The alarms which stay where they are: the longest subsequence of the
+    // common alarms whose new positions are increasing.
+    int[] targets = new int[current.size()];
+    for (int i = 0; i < targets.length; ++i) {
+      targets[i] = newIndex.get(current.get(i));
+    }
+    boolean[] stays = new boolean[newList.size()];
+    for (int target : longestIncreasingSubsequence(targets)) {
+      stays[target] = true;
+    }
+
+    // Walk the new order and put every other alarm directly after its
+    // predecessor, which is already in its final place by then.
+    for (int i = 0; i < newList.size(); ++i) {
+      if (stays[i]) {
+        continue;
+      }
+      long alarmId = newList.get(i).getAlarmId();
+      int to = i == 0 ? 0 : current.indexOf(newList.get(i - 1).getAlarmId()) + 1;
+      if (oldInfos.containsKey(alarmId)) {
+        int from = current.indexOf(alarmId);
+        current.remove(from);
+        if (from < to) {
+          to--;
+        }
+        current.add(to, alarmId);
+        if (from != to) {
+          diff.add(MOVE, from, to);
+        }
+      } else {
+        current.add(to, alarmId);
+        diff.add(INSERT, to, 0);
+      }
+    }
+
+    for (int i = 0; i < newList.size(); ++i) {
+      AlarmInfo before = oldInfos.get(newList.get(i).getAlarmId());
+      if (before != null && !before.equals(newList.get(i))) {
+        diff.add(CHANGE, i, 0);
+      }
+    }
+
+    return diff;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void dispatchTo(Callback callback) {
+    for (int i = 0; i < size; i += 3) {
+      switch (steps[i]) {
+        case REMOVE:
+          callback.onRemoved(steps[i + 1]);
+          break;
+        case MOVE:
+          callback.onMoved(steps[i + 1], steps[i + 2]);
+          break;
+        case INSERT:
+          callback.onInserted(steps[i + 1]);
+          break;
+        case CHANGE:
+          callback.onChanged(steps[i + 1]);
+          break;
+      }
+    }
+  }
+
+  private void add(int type, int first, int second) {
+    if (size == steps.length) {
+      steps = Arrays.copyOf(steps, size * 2);
+    }
+    steps[size++] = type;
+    steps[size++] = first;
+    steps[size++] = second;
+  }
+
+  // Patience sorting with predecessor links, O(n log n).  Returns the values
+  // of one longest strictly increasing subsequence.
+  private static int[] longestIncreasingSubsequence(int[] values) {
+    int[] tails = new int[values.length];
+    int[] previous = new int[values.length];
+    int length = 0;
+    for (int i = 0; i < values.length; ++i) {
+      int low = 0;
+      int high = length;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values[tails[mid]] < values[i]) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      previous[i] = low > 0 ? tails[low - 1] : -1;
+      tails[low] = i;
+      if (low == length) {
+        length++;
+      }
+    }
+
+    int[] result = new int[length];
+    for (int i = length - 1, k = length > 0 ? tails[length - 1] : -1; i >= 0;
+        --i, k = previous[k]) {
+      result[i] = values[k];
+    }
+    return result;
+  }
+}
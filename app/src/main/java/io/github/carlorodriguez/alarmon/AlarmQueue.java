@@ -0,0 +1,268 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+/**
+ * A scheduling index keyed by primitive alarm ids and ordered by primitive
+ * epoch-millis.  It is a binary min-heap paired with an open-addressing hash
+ * table that maps each alarm id to its position in the heap, so the earliest
+ * alarm is available in constant time and insertions, updates and removals
+ * take logarithmic time.  Alarms due at the same instant are ordered by id.
+ * Nothing is allocated except when the backing arrays have to grow.
+ */
+public final class AlarmQueue<V> {
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Heap arrays.  Entry i holds an alarm id, its due time, an arbitrary
+  // payload and the index of the hash table slot that points back at it.
+  private long[] ids;
+  private long[] times;
+  private Object[] values;
+  private int[] slots;
+  // Hash table slot -> heap index + 1.  Zero marks an empty slot.
+  private int[] table;
+  private int size;
+
+  public AlarmQueue() {
+    ids = new long[INITIAL_CAPACITY];
+    times = new long[INITIAL_CAPACITY];
+    values = new Object[INITIAL_CAPACITY];
+    slots = new int[INITIAL_CAPACITY];
+    table = new int[INITIAL_CAPACITY * 2];
+    size = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(long id) {
+    return table[findSlot(id)] != 0;
+  }
+
+  /**
+   * Inserts an alarm, or moves it to its new position if it is already
+   * queued.
+   */
+  public void put(long id, long time, V value) {
+    int slot = findSlot(id);
+    int index = table[slot] - 1;
+    if (index >= 0) {
+      long previous = times[index];
+      times[index] = time;
+      values[index] = value;
+      if (time < previous) {
+        siftUp(index);
+      } else {
+        siftDown(index);
+      }
+      return;
+    }
+
+    if (size == ids.length) {
+      grow();
+      slot = findSlot(id);
+    }
+    index = size++;
+    ids[index] = id;
+    times[index] = time;
+    values[index] = value;
+    slots[index] = slot;
+    table[slot] = index + 1;
+    siftUp(index);
+  }
+
+  /**
+   * Removes an alarm from the queue.
+   * @return The payload of the removed alarm or null if it was not queued.
+   */
+  public V remove(long id) {
+    int slot = findSlot(id);
+    int index = table[slot] - 1;
+    if (index < 0) {
+      return null;
+    }
+    V value = valueAt(index);
+    deleteSlot(slot);
+
+    int last = --size;
+    if (index != last) {
+      ids[index] = ids[last];
+      times[index] = times[last];
+      values[index] = values[last];
+      slots[index] = slots[last];
+      table[slots[index]] = index + 1;
+      siftDown(index);
+      siftUp(index);
+    }
+    values[last] = null;
+    return value;
+  }
+
+  public V get(long id) {
+    int index = table[findSlot(id)] - 1;
+    return index < 0 ? null : valueAt(index);
+  }
+
+  /**
+   * @return The due time of the given alarm or -1 if it is not queued.
+   */
+  public long timeOf(long id) {
+    int index = table[findSlot(id)] - 1;
+    return index < 0 ? -1 : times[index];
+  }
+
+  public long peekId() {
+    assertNotEmpty();
+    return ids[0];
+  }
+
+  public long peekTime() {
+    assertNotEmpty();
+    return times[0];
+  }
+
+  public V peek() {
+    assertNotEmpty();
+    return valueAt(0);
+  }
+
+  // Positional accessors for iterating over the queue.  Entries are visited
+  // in heap order, not in time order.
+  public long idAt(int index) {
+    return ids[index];
+  }
+
+  public long timeAt(int index) {
+    return times[index];
+  }
+
+  @SuppressWarnings("unchecked")
+  public V valueAt(int index) {
+    return (V) values[index];
+  }
+
+  private void assertNotEmpty() {
+    if (size == 0) {
+      throw new IllegalStateException("AlarmQueue is empty.");
+    }
+  }
+
+  private boolean less(int a, int b) {
+    return times[a] < times[b] || (times[a] == times[b] && ids[a] < ids[b]);
+  }
+
+  private void siftUp(int index) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (!less(index, parent)) {
+        return;
+      }
+      swap(index, parent);
+      index = parent;
+    }
+  }
+
+  private void siftDown(int index) {
+    while (true) {
+      int smallest = index;
+      int left = 2 * index + 1;
+      int right = left + 1;
+      if (left < size && less(left, smallest)) {
+        smallest = left;
+      }
+      if (right < size && less(right, smallest)) {
+        smallest = right;
+      }
+      if (smallest == index) {
+        return;
+      }
+      swap(index, smallest);
+      index = smallest;
+    }
+  }
+
+  private void swap(int a, int b) {
+    long id = ids[a];
+    ids[a] = ids[b];
+    ids[b] = id;
+    long time = times[a];
+    times[a] = times[b];
+    times[b] = time;
+    Object value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+    int slot = slots[a];
+    slots[a] = slots[b];
+    slots[b] = slot;
+    table[slots[a]] = a + 1;
+    table[slots[b]] = b + 1;
+  }
+
+  // Package-private so that tests can pick ids which collide.
+  static int hash(long id, int mask) {
+    long h = id * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32)) & mask;
+  }
+
+  // Returns the slot holding this id, or the empty slot where it belongs.
+  private int findSlot(long id) {
+    int mask = table.length - 1;
+    int slot = hash(id, mask);
+    while (table[slot] != 0 && ids[table[slot] - 1] != id) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  // Linear probing deletion: shift later members of the probe run back into
+  // the hole so that lookups never stop early on an empty slot.
+  private void deleteSlot(int slot) {
+    int mask = table.length - 1;
+    int hole = slot;
+    int next = (hole + 1) & mask;
+    while (table[next] != 0) {
+      int home = hash(ids[table[next] - 1], mask);
+      if (((next - home) & mask) >= ((next - hole) & mask)) {
+        table[hole] = table[next];
+        slots[table[hole] - 1] = hole;
+        hole = next;
+      }
+      next = (next + 1) & mask;
+    }
+    table[hole] = 0;
+  }
+
+  private void grow() {
+    int capacity = ids.length * 2;
+    long[] newIds = new long[capacity];
+    long[] newTimes = new long[capacity];
+    Object[] newValues = new Object[capacity];
+    System.arraycopy(ids, 0, newIds, 0, size);
+    System.arraycopy(times, 0, newTimes, 0, size);
+    System.arraycopy(values, 0, newValues, 0, size);
+    ids = newIds;
+    times = newTimes;
+    values = newValues;
+    slots = new int[capacity];
+    table = new int[capacity * 2];
+    for (int i = 0; i < size; ++i) {
+      int slot = findSlot(ids[i]);
+      table[slot] = i + 1;
+      slots[i] = slot;
+    }
+  }
+}
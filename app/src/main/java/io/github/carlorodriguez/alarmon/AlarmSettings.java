@@ -82,7 +82,6 @@ public final class AlarmSettings {
   }
 
   public AlarmSettings(Cursor cursor) {
-    cursor.moveToFirst();
     tone = Uri.parse(cursor.getString(cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_URL)));
     toneName = cursor.getString(cursor.getColumnIndex(DbHelper.SETTINGS_COL_TONE_NAME));
     snoozeMinutes = cursor.getInt(cursor.getColumnIndex(DbHelper.SETTINGS_COL_SNOOZE));
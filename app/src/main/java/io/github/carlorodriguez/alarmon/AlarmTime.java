@@ -16,9 +16,9 @@
 package io.github.carlorodriguez.alarmon;
 
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Locale;
+import java.util.TimeZone;
 
 import android.content.Context;
 import android.os.Parcel;
@@ -35,16 +35,21 @@ import android.text.format.DateFormat;
  * an ordered list can be created in PendingAlarmList.
  */
 public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
-  private Calendar calendar;
+  // The epoch-millis of the next occurrence of this alarm.
+  private long millis;
+  private int secondsAfterMidnight;
   private Week daysOfWeek;
+  // Built on demand from millis for callers which need calendar fields.
+  private Calendar calendar;
 
   /**
    * Copy constructor.
    * @param rhs rhs
    */
   public AlarmTime(AlarmTime rhs) {
-    calendar = (Calendar) rhs.calendar.clone();
-    daysOfWeek = new Week(rhs.daysOfWeek);
+    millis = rhs.millis;
+    secondsAfterMidnight = rhs.secondsAfterMidnight;
+    daysOfWeek = rhs.daysOfWeek;
   }
 
   /**
@@ -55,7 +60,7 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
    * @param second Second
    */
   public AlarmTime(int hourOfDay, int minute, int second) {
-    this(hourOfDay, minute, second, new Week());
+    this(hourOfDay, minute, second, Week.NO_REPEATS);
   }
 
   /**
@@ -67,10 +72,21 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
    * @param daysOfWeek Days of week
    */
   public AlarmTime(int hourOfDay, int minute, int second, Week daysOfWeek) {
-    this.calendar = Calendar.getInstance();
-    calendar.set(Calendar.HOUR_OF_DAY, hourOfDay);
-    calendar.set(Calendar.MINUTE, minute);
-    calendar.set(Calendar.SECOND, second);
+    this(hourOfDay * 3600 + minute * 60 + second, daysOfWeek);
+  }
+
+  /**
+   * Construct an AlarmTime for the next occurrence of this many seconds after
+   * midnight which occurs on the specified days of the week.
+   * @param secondsAfterMidnight Seconds after midnight
+   * @param daysOfWeek Days of week
+   */
+  public AlarmTime(int secondsAfterMidnight, Week daysOfWeek) {
+    int seconds = secondsAfterMidnight % NextOccurrence.SECONDS_PER_DAY;
+    if (seconds < 0) {
+      seconds += NextOccurrence.SECONDS_PER_DAY;
+    }
+    this.secondsAfterMidnight = seconds;
     this.daysOfWeek = daysOfWeek;
 
     findNextOccurrence();
@@ -78,40 +94,18 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
 
     public void setDaysOfWeek(Week week) {
         daysOfWeek = week;
+        findNextOccurrence();
     }
 
   private void findNextOccurrence() {
-    Calendar now = Calendar.getInstance();
-
-    // If this hour/minute/second has already occurred today, move to tomorrow.
-    if (calendar.before(now)) {
-      calendar.add(Calendar.DATE, 1);
-    }
-
-    if (calendar.before(now)) {
-      throw new IllegalStateException("Inconsistent calendar.");
-    }
-
-    // If there are no repeats requested, there is nothing left to do.
-    if (daysOfWeek.equals(Week.NO_REPEATS)) {
-      return;
-    }
-
-    // Keep incrementing days until we hit a suitable day of the week.
-    for (int i = 0; i < Week.Day.values().length; ++i) {
-      Week.Day alarmDay = Week.calendarToDay(calendar.get(Calendar.DAY_OF_WEEK));
-      if (daysOfWeek.hasDay(alarmDay)) {
-        return;
-      }
-      calendar.add(Calendar.DATE, 1);
-    }
-
-    throw new IllegalStateException("Didn't find a suitable date for alarm.");
+    millis = NextOccurrence.after(System.currentTimeMillis(),
+        secondsAfterMidnight, daysOfWeek.mask(), TimeZone.getDefault());
+    calendar = null;
   }
 
   @Override
   public int compareTo(@NonNull AlarmTime another) {
-    return calendar.compareTo(another.calendar);
+    return millis < another.millis ? -1 : (millis == another.millis ? 0 : 1);
   }
 
   @Override
@@ -121,17 +115,14 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
     }
     AlarmTime rhs = (AlarmTime) o;
 
-      return calendar.get(Calendar.HOUR_OF_DAY) == rhs.calendar().get(Calendar.HOUR_OF_DAY)
-              && calendar.get(Calendar.MINUTE) == rhs.calendar().get(Calendar.MINUTE)
-              && calendar.get(Calendar.SECOND) == rhs.calendar().get(Calendar.SECOND)
-              && Arrays.equals(getDaysOfWeek().bitmask(),
-              rhs.getDaysOfWeek().bitmask());
+      return secondsAfterMidnight == rhs.secondsAfterMidnight
+              && daysOfWeek == rhs.daysOfWeek;
   }
 
   public String toString() {
     SimpleDateFormat formatter = new SimpleDateFormat("HH:mm.ss MMMM dd yyyy",
             Locale.US);
-    return formatter.format(calendar.getTimeInMillis());
+    return formatter.format(millis);
   }
 
   public String localizedString(Context context) {
@@ -148,29 +139,78 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
     }
 
     SimpleDateFormat formatter = new SimpleDateFormat(format, Locale.US);
-    return formatter.format(calendar.getTime());
+    return formatter.format(millis);
   }
 
   public Calendar calendar() {
+    if (calendar == null) {
+      calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(millis);
+    }
     return calendar;
   }
 
+  /**
+   * @return The epoch-millis of the next occurrence of this alarm.
+   */
+  public long millis() {
+    return millis;
+  }
+
+  public int secondsAfterMidnight() {
+    return secondsAfterMidnight;
+  }
+
   public Week getDaysOfWeek() {
     return daysOfWeek;
   }
 
   public boolean repeats() {
-    return !daysOfWeek.equals(Week.NO_REPEATS);
+    return daysOfWeek != Week.NO_REPEATS;
   }
 
   public String timeUntilString(Context c) {
-    Calendar now = Calendar.getInstance();
-    if (calendar.before(now)) {
+    return timeUntilString(c, AlarmUtil.Interval.MINUTE);
+  }
+
+  /**
+   * The countdown as shown by the notification and the lock screen, which
+   * only count minutes when the alarm is close.  See countdownGranularity().
+   */
+  public String coarseTimeUntilString(Context c) {
+    return timeUntilString(c,
+        countdownGranularity(millis, System.currentTimeMillis()));
+  }
+
+  /**
+   * @return The precision that a countdown from now to millis is displayed
+   *     with: minutes for the last day, hours for the day before that and
+   *     days before that.
+   */
+  public static AlarmUtil.Interval countdownGranularity(long millis, long now) {
+    long minute = AlarmUtil.Interval.MINUTE.millis();
+    long minutes = millis / minute - now / minute;
+    if (minutes < 24 * 60) {
+      return AlarmUtil.Interval.MINUTE;
+    } else if (minutes < 2 * 24 * 60) {
+      return AlarmUtil.Interval.HOUR;
+    } else {
+      return AlarmUtil.Interval.DAY;
+    }
+  }
+
+  /**
+   * @param granularity The countdown is truncated to a whole number of these.
+   */
+  public String timeUntilString(Context c, AlarmUtil.Interval granularity) {
+    long now = System.currentTimeMillis();
+    if (millis < now) {
       return c.getString(R.string.alarm_has_occurred);
     }
-    long now_min = now.getTimeInMillis() / 1000 / 60;
-    long then_min = calendar.getTimeInMillis() / 1000 / 60;
-    long difference_minutes = then_min - now_min;
+    long now_min = now / 1000 / 60;
+    long then_min = millis / 1000 / 60;
+    long step = Math.max(1, granularity.millis() / 1000 / 60);
+    long difference_minutes = (then_min - now_min) / step * step;
     long days = difference_minutes / (60 * 24);
     long hours = difference_minutes % (60 * 24);
     long minutes = hours % 60;
@@ -195,6 +235,19 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
     return value;
   }
 
+  /**
+   * Construct a non-repeating AlarmTime for exactly the given instant.
+   * @param millis Epoch-millis
+   * @return AlarmTime
+   */
+  public static AlarmTime fromMillis(long millis) {
+    AlarmTime time = new AlarmTime(
+        NextOccurrence.secondsAfterMidnight(millis, TimeZone.getDefault()),
+        Week.NO_REPEATS);
+    time.millis = millis;
+    return time;
+  }
+
   /**
    * A static method which generates an AlarmTime object @minutes in the future.
    * It first truncates seconds (rounds down to the nearest minute) before
@@ -212,15 +265,20 @@ public final class AlarmTime implements Parcelable, Comparable<AlarmTime> {
         snooze.get(Calendar.SECOND));
   }
 
+  // Parceled as the raw fields: epoch-millis, seconds after midnight and the
+  // day mask, 16 bytes once Parcel pads the byte.  The Calendar is rebuilt on
+  // the receiving side only if someone asks for it.
   private AlarmTime(Parcel source) {
-    this.calendar = (Calendar) source.readSerializable();
-    this.daysOfWeek = source.readParcelable(null);
+    this.millis = source.readLong();
+    this.secondsAfterMidnight = source.readInt();
+    this.daysOfWeek = Week.valueOf(source.readByte());
   }
 
   @Override
   public void writeToParcel(Parcel dest, int flags) {
-    dest.writeSerializable(calendar);
-    dest.writeParcelable(daysOfWeek, 0);
+    dest.writeLong(millis);
+    dest.writeInt(secondsAfterMidnight);
+    dest.writeByte((byte) daysOfWeek.mask());
   }
 
   public static final Parcelable.Creator<AlarmTime> CREATOR =
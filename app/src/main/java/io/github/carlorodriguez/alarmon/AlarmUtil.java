@@ -30,7 +30,8 @@ public final class AlarmUtil {
   }
 
   enum Interval {
-    SECOND(1000), MINUTE(60 * 1000), HOUR(60 * 60 * 1000);
+    SECOND(1000), MINUTE(60 * 1000), HOUR(60 * 60 * 1000),
+    DAY(24 * 60 * 60 * 1000);
     private long millis;
     public long millis() { return millis; }
     Interval(long millis) {
@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.graphics.Color;
+import android.os.Build;
 import android.preference.PreferenceManager;
 import android.support.v4.content.ContextCompat;
 
@@ -35,6 +36,8 @@ public final class AppSettings {
   public static final String CUSTOM_LOCK_SCREEN_TEXT = "CUSTOM_LOCK_SCREEN";
   public static final String CUSTOM_LOCK_SCREEN_PERSISTENT = "CUSTOM_LOCK_PERSISTENT";
   public static final String ALARM_TIMEOUT = "ALARM_TIMEOUT";
+  public static final String VOLUME_RAMP_CURVE = "VOLUME_RAMP_CURVE";
+  public static final String PCM_TONES = "PCM_TONES";
     public static final String APP_THEME_KEY = "APP_THEME_KEY";
     public static final String TIME_PICKER_COLOR = "TIME_PICKER_COLOR";
     public static final String NOTIFICATION_TEXT = "NOTIFICATION_TEXT";
@@ -77,7 +80,7 @@ public final class AppSettings {
     String countdown = "";
     if (nextTime != null) {
       time = nextTime.localizedString(c);
-      countdown = nextTime.timeUntilString(c);
+      countdown = nextTime.coarseTimeUntilString(c);
     }
 
     String text;
@@ -93,9 +96,61 @@ public final class AppSettings {
       throw new IllegalStateException("Unknown lockscreen preference: " + value);
     }
 
-    text = text.replace("%t", time);
-    text = text.replace("%c", countdown);
-    return text;
+    return lockScreenTemplate(prefs, text).render(time, countdown);
+  }
+
+  // Compiled templates, parsed on first use and dropped whenever one of the
+  // preferences they are built from changes.  Guarded by AppSettings.class.
+  private static TextTemplate notificationTemplate;
+  private static TextTemplate lockScreenTemplate;
+  private static boolean watchingTemplates;
+
+  // SharedPreferences only keeps a weak reference to its listeners.
+  private static final SharedPreferences.OnSharedPreferenceChangeListener
+      templateWatcher = new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs,
+            String key) {
+          synchronized (AppSettings.class) {
+            if (NOTIFICATION_TEXT.equals(key)
+                || CUSTOM_NOTIFICATION_TEXT.equals(key)) {
+              notificationTemplate = null;
+            } else if (LOCK_SCREEN.equals(key)
+                || CUSTOM_LOCK_SCREEN_TEXT.equals(key)) {
+              lockScreenTemplate = null;
+            }
+          }
+        }
+      };
+
+  private static void watchTemplates(SharedPreferences prefs) {
+    if (!watchingTemplates) {
+      prefs.registerOnSharedPreferenceChangeListener(templateWatcher);
+      watchingTemplates = true;
+    }
+  }
+
+  private static synchronized TextTemplate lockScreenTemplate(
+      SharedPreferences prefs, String format) {
+    if (lockScreenTemplate == null) {
+      watchTemplates(prefs);
+      lockScreenTemplate = TextTemplate.compileFormat(format);
+    }
+    return lockScreenTemplate;
+  }
+
+  /**
+   * @return The notification template, compiled.
+   * @see #getNotificationTemplate(Context)
+   */
+  public static synchronized TextTemplate getCompiledNotificationTemplate(
+      Context context) {
+    if (notificationTemplate == null) {
+      watchTemplates(PreferenceManager.getDefaultSharedPreferences(context));
+      notificationTemplate = TextTemplate.compileVariables(
+          getNotificationTemplate(context));
+    }
+    return notificationTemplate;
   }
 
   public static boolean isDebugMode(Context c) {
@@ -142,6 +197,33 @@ public final class AppSettings {
     }
   }
 
+  /**
+   * @return Whether alarm tones should be decoded into the ToneCache and
+   *     played with a PcmTonePlayer.  This needs MediaCodec (Jelly Bean).
+   */
+  public static boolean usePcmTones(Context c) {
+    final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+        && prefs.getBoolean(PCM_TONES, false);
+  }
+
+  public static VolumeRamp.Curve volumeRampCurve(Context c) {
+    final String[] values = c.getResources().getStringArray(R.array.volume_ramp_values);
+    final String LINEAR = values[0];
+    final String LOGARITHMIC = values[1];
+    final String EXPONENTIAL = values[2];
+
+    final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(c);
+    final String value = prefs.getString(VOLUME_RAMP_CURVE, LINEAR);
+    if (value.equals(LOGARITHMIC)) {
+      return VolumeRamp.Curve.LOGARITHMIC;
+    } else if (value.equals(EXPONENTIAL)) {
+      return VolumeRamp.Curve.EXPONENTIAL;
+    } else {
+      return VolumeRamp.Curve.LINEAR;
+    }
+  }
+
     public static void setTheme(Context context, Activity activity) {
         SharedPreferences sharedPref = PreferenceManager.
                 getDefaultSharedPreferences(context);
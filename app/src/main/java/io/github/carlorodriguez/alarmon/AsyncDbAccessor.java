@@ -0,0 +1,170 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Runs DbAccessor work off the main thread and delivers the results back on
+ * the main looper.  All writes in the process go through one writer thread,
+ * so they are applied in the order they were submitted.  Reads have their
+ * own thread and, since the database uses write-ahead logging, are never
+ * held up by a write in flight.
+ *
+ * Each owner (an activity or a service) creates its own instance and calls
+ * cancel() when it is destroyed, after which no more results are delivered
+ * to it.  Work already submitted still runs to completion, and the instance
+ * keeps the database open until it has.  Work submitted after cancel() is
+ * dropped.
+ */
+public final class AsyncDbAccessor {
+  private static final ExecutorService writer =
+      Executors.newSingleThreadExecutor(new DbThreadFactory("DbWriter"));
+  private static final ExecutorService reader =
+      Executors.newSingleThreadExecutor(new DbThreadFactory("DbReader"));
+  private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private static final String TAG = "AsyncDbAccessor";
+
+  public interface Operation<T> {
+    /**
+     * Called on a background thread.
+     */
+    T run(DbAccessor db);
+  }
+
+  public abstract static class Callback<T> {
+    /**
+     * Called on the main thread with the result of an Operation.
+     */
+    public abstract void onResult(T result);
+
+    /**
+     * Called on the main thread instead of onResult() if the Operation threw.
+     * The exception has already been logged.
+     */
+    public void onFailure(RuntimeException e) {}
+  }
+
+  // One reference for the lifetime of this instance, released once it has
+  // been cancelled and the last of its operations has finished.
+  private final DbAccessor db;
+  private volatile boolean cancelled;
+  // Guarded by this.
+  private int pending;
+  private boolean released;
+
+  public AsyncDbAccessor(Context context) {
+    db = DbAccessor.acquire(context.getApplicationContext());
+  }
+
+  public <T> void read(Operation<T> operation, Callback<T> callback) {
+    submit(reader, operation, callback);
+  }
+
+  /**
+   * @param callback May be null if the caller does not need the result.
+   */
+  public <T> void write(Operation<T> operation, Callback<T> callback) {
+    submit(writer, operation, callback);
+  }
+
+  public void cancel() {
+    synchronized (this) {
+      cancelled = true;
+      if (pending > 0 || released) {
+        return;
+      }
+      released = true;
+    }
+    db.release();
+  }
+
+  private <T> void submit(ExecutorService executor,
+      final Operation<T> operation, final Callback<T> callback) {
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      pending++;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        T result = null;
+        RuntimeException failure = null;
+        try {
+          result = operation.run(db);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Database operation failed", e);
+          failure = e;
+        } finally {
+          finished();
+        }
+        if (callback != null) {
+          deliver(callback, result, failure);
+        }
+      }
+    });
+  }
+
+  private void finished() {
+    synchronized (this) {
+      pending--;
+      if (!cancelled || pending > 0 || released) {
+        return;
+      }
+      released = true;
+    }
+    db.release();
+  }
+
+  private <T> void deliver(final Callback<T> callback, final T result,
+      final RuntimeException failure) {
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (cancelled) {
+          return;
+        }
+        if (failure != null) {
+          callback.onFailure(failure);
+        } else {
+          callback.onResult(result);
+        }
+      }
+    });
+  }
+
+  private static final class DbThreadFactory implements ThreadFactory {
+    private final String name;
+
+    DbThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      return new Thread(runnable, name);
+    }
+  }
+}
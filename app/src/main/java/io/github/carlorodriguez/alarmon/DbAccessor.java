@@ -15,30 +15,183 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
+/**
+ * Access to the alarm database.  There is a single instance per process,
+ * shared by every component through acquire() and release(), so the
+ * database is opened once and stays open for as long as anything uses it.
+ */
 public final class DbAccessor {
-  private SQLiteDatabase rDb;
-  private SQLiteDatabase rwDb;
+  private static DbAccessor instance;
+  private static int references;
+  // Bumped by every settings write, see settingsGeneration().
+  private static final AtomicLong settingsGeneration = new AtomicLong();
 
-  public DbAccessor(Context context) {
-    DbHelper db = new DbHelper(context);
-    rwDb = db.getWritableDatabase();
-    rDb = db.getReadableDatabase();
+  // The order of the alarm list.  Ties on time are broken by id so that the
+  // list can be kept in the same order when single alarms change.
+  public static final String ALARMS_ORDER =
+      DbHelper.ALARMS_COL_TIME + " ASC, " + DbHelper.ALARMS_COL__ID + " ASC";
+
+  // The statements below are compiled once, in the constructor.  They are
+  // package-private so that DbAccessorBenchmark measures exactly these.
+  static final String ENABLE_ALARM_SQL =
+      "UPDATE " + DbHelper.DB_TABLE_ALARMS
+      + " SET " + DbHelper.ALARMS_COL_ENABLED + " = 1"
+      + " WHERE " + DbHelper.ALARMS_COL__ID + " = ?";
+  static final String DISABLE_ALARM_SQL =
+      "UPDATE " + DbHelper.DB_TABLE_ALARMS
+      + " SET " + DbHelper.ALARMS_COL_ENABLED + " = 0"
+      + " WHERE " + DbHelper.ALARMS_COL__ID + " = ?";
+  static final String DELETE_ALARM_SQL =
+      "DELETE FROM " + DbHelper.DB_TABLE_ALARMS
+      + " WHERE " + DbHelper.ALARMS_COL__ID + " = ?";
+  static final String DELETE_SETTINGS_SQL =
+      "DELETE FROM " + DbHelper.DB_TABLE_SETTINGS
+      + " WHERE " + DbHelper.SETTINGS_COL_ID + " = ?";
+  // Bound in the order of AlarmSettings.contentColumns().
+  static final String WRITE_SETTINGS_SQL =
+      "INSERT OR REPLACE INTO " + DbHelper.DB_TABLE_SETTINGS
+      + " (" + joinColumns(AlarmSettings.contentColumns()) + ") VALUES ("
+      + placeholders(AlarmSettings.contentColumns().length) + ")";
+
+  // Lookups by id return rows, which a SQLiteStatement can't, so these use
+  // constant SQL with bound arguments.  That lets the connection reuse its
+  // compiled statement instead of parsing new SQL for every id.
+  static final String SELECT_ALARM_SQL =
+      "SELECT " + joinColumns(AlarmInfo.contentColumns())
+      + " FROM " + DbHelper.DB_TABLE_ALARMS
+      + " WHERE " + DbHelper.ALARMS_COL__ID + " = ?";
+  static final String SELECT_SETTINGS_SQL =
+      "SELECT " + joinColumns(AlarmSettings.contentColumns())
+      + " FROM " + DbHelper.DB_TABLE_SETTINGS
+      + " WHERE " + DbHelper.SETTINGS_COL_ID + " = ?";
+
+  private final DbHelper helper;
+  private final SQLiteDatabase rwDb;
+
+  // Compiled once and kept for the lifetime of the accessor.  A statement
+  // can only be used by one thread at a time, so each use locks it.
+  private final SQLiteStatement enableAlarmStatement;
+  private final SQLiteStatement disableAlarmStatement;
+  private final SQLiteStatement deleteAlarmStatement;
+  private final SQLiteStatement deleteSettingsStatement;
+  private final SQLiteStatement writeSettingsStatement;
+
+  private DbAccessor(Context context) {
+    helper = new DbHelper(context.getApplicationContext());
+    rwDb = helper.getWritableDatabase();
+    // Lets readers proceed while a write is in progress.
+    rwDb.enableWriteAheadLogging();
+
+    enableAlarmStatement = rwDb.compileStatement(ENABLE_ALARM_SQL);
+    disableAlarmStatement = rwDb.compileStatement(DISABLE_ALARM_SQL);
+    deleteAlarmStatement = rwDb.compileStatement(DELETE_ALARM_SQL);
+    deleteSettingsStatement = rwDb.compileStatement(DELETE_SETTINGS_SQL);
+    writeSettingsStatement = rwDb.compileStatement(WRITE_SETTINGS_SQL);
   }
 
-  public void closeConnections() {
-    rDb.close();
-    rwDb.close();
+  /**
+   * @return A number which changes whenever any alarm settings are written,
+   *     so that something derived from them can be kept until it does.
+   */
+  public static long settingsGeneration() {
+    return settingsGeneration.get();
+  }
+
+  private static String placeholders(int count) {
+    String placeholders = "?";
+    for (int i = 1; i < count; ++i) {
+      placeholders += ", ?";
+    }
+    return placeholders;
+  }
+
+  private static String joinColumns(String[] columns) {
+    String joined = columns[0];
+    for (int i = 1; i < columns.length; ++i) {
+      joined += ", " + columns[i];
+    }
+    return joined;
+  }
+
+  /**
+   * Returns the shared accessor, opening the database if this is the first
+   * reference.  Every call must be balanced by a call to release().
+   */
+  public static synchronized DbAccessor acquire(Context context) {
+    if (instance == null) {
+      instance = new DbAccessor(context);
+    }
+    references++;
+    return instance;
+  }
+
+  /**
+   * Drops a reference obtained from acquire().  The database is closed when
+   * the last reference is released.
+   */
+  public void release() {
+    synchronized (DbAccessor.class) {
+      if (references == 0) {
+        throw new IllegalStateException("DbAccessor released too many times.");
+      }
+      if (--references == 0) {
+        enableAlarmStatement.close();
+        disableAlarmStatement.close();
+        deleteAlarmStatement.close();
+        deleteSettingsStatement.close();
+        writeSettingsStatement.close();
+        helper.close();
+        instance = null;
+      }
+    }
   }
 
   public long newAlarm(AlarmTime time, boolean enabled, String name) {
+    long id = insertAlarm(time, enabled, name);
+    // The id may have been cached as missing before it was reused.
+    AlarmCache.forgetAlarm(id);
+    AlarmCache.forgetSettings(id);
+    return id;
+  }
+
+  /**
+   * Inserts one alarm per time in a single transaction.
+   * @return The ids of the new alarms, in the order of times.
+   */
+  public long[] newAlarms(AlarmTime[] times, boolean enabled, String name) {
+    long[] ids = new long[times.length];
+    rwDb.beginTransaction();
+    try {
+      for (int i = 0; i < times.length; ++i) {
+        ids[i] = insertAlarm(times[i], enabled, name);
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      rwDb.endTransaction();
+    }
+    // The batch operations only touch the cache once the transaction has
+    // committed, so that it never holds a change which was rolled back.
+    for (long id : ids) {
+      AlarmCache.forgetAlarm(id);
+      AlarmCache.forgetSettings(id);
+    }
+    return ids;
+  }
+
+  private long insertAlarm(AlarmTime time, boolean enabled, String name) {
     AlarmInfo info = new AlarmInfo(time, enabled, name);
 
     long id = rwDb.insert(DbHelper.DB_TABLE_ALARMS, null, info.contentValues());
@@ -49,38 +202,182 @@ public final class DbAccessor {
   }
 
   public boolean deleteAlarm(long alarmId) {
-    int count = rDb.delete(DbHelper.DB_TABLE_ALARMS,
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
+    boolean deleted = deleteAlarmRows(alarmId);
+    AlarmCache.putAlarm(alarmId, null);
+    AlarmCache.putSettings(alarmId, null);
+    return deleted;
+  }
+
+  private boolean deleteAlarmRows(long alarmId) {
+    int count = executeUpdateDelete(deleteAlarmStatement, alarmId);
     // This may or may not exist.  We don't care about the return value.
-    rDb.delete(DbHelper.DB_TABLE_SETTINGS,
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null);
+    executeUpdateDelete(deleteSettingsStatement, alarmId);
     return count > 0;
   }
 
   public boolean enableAlarm(long alarmId, boolean enabled) {
-    ContentValues values = new ContentValues(1);
-    values.put(DbHelper.ALARMS_COL_ENABLED, enabled);
-    int count = rwDb.update(DbHelper.DB_TABLE_ALARMS, values,
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null);
-    return count != 0;
+    boolean updated = updateAlarmEnabled(alarmId, enabled);
+    cacheAlarmEnabled(alarmId, enabled, updated);
+    return updated;
   }
 
-  public List<Long> getEnabledAlarms() {
-    LinkedList<Long> enabled = new LinkedList<>();
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
-        new String[] { DbHelper.ALARMS_COL__ID },
-        DbHelper.ALARMS_COL_ENABLED + " = 1", null, null, null, null);
+  private boolean updateAlarmEnabled(long alarmId, boolean enabled) {
+    return executeUpdateDelete(
+        enabled ? enableAlarmStatement : disableAlarmStatement, alarmId) != 0;
+  }
+
+  private static void cacheAlarmEnabled(long alarmId, boolean enabled,
+      boolean updated) {
+    if (updated) {
+      AlarmCache.putAlarmEnabled(alarmId, enabled);
+    } else {
+      AlarmCache.putAlarm(alarmId, null);
+    }
+  }
+
+  /**
+   * Deletes the given alarms and their settings in a single transaction.
+   * @return The number of alarms deleted.
+   */
+  public int deleteAlarms(long[] alarmIds) {
+    int count = 0;
+    rwDb.beginTransaction();
+    try {
+      for (long alarmId : alarmIds) {
+        if (deleteAlarmRows(alarmId)) {
+          count++;
+        }
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      rwDb.endTransaction();
+    }
+    for (long alarmId : alarmIds) {
+      AlarmCache.putAlarm(alarmId, null);
+      AlarmCache.putSettings(alarmId, null);
+    }
+    return count;
+  }
+
+  /**
+   * Enables or disables the given alarms in a single transaction.
+   * @return The number of alarms updated.
+   */
+  public int enableAlarms(long[] alarmIds, boolean enabled) {
+    int count = 0;
+    boolean[] updated = new boolean[alarmIds.length];
+    rwDb.beginTransaction();
+    try {
+      for (int i = 0; i < alarmIds.length; ++i) {
+        updated[i] = updateAlarmEnabled(alarmIds[i], enabled);
+        if (updated[i]) {
+          count++;
+        }
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      rwDb.endTransaction();
+    }
+    for (int i = 0; i < alarmIds.length; ++i) {
+      cacheAlarmEnabled(alarmIds[i], enabled, updated[i]);
+    }
+    return count;
+  }
+
+  /**
+   * Reads every enabled alarm together with its settings in one query and
+   * loads them into the AlarmCache, so that scheduling the returned alarms
+   * and firing them needs no further reads.
+   */
+  public List<AlarmInfo> readEnabledAlarms() {
+    ArrayList<AlarmInfo> enabled = new ArrayList<>();
+    Cursor cursor = rwDb.query(DbHelper.DB_VIEW_ALARMS_WITH_SETTINGS,
+        null, DbHelper.ALARMS_COL_ENABLED + " = 1", null, null, null, null);
+    int settingsIdIndex = cursor.getColumnIndex(DbHelper.SETTINGS_COL_ID);
     while (cursor.moveToNext()) {
-      long alarmId = cursor.getLong(cursor.getColumnIndex(DbHelper.ALARMS_COL__ID));
-      enabled.add(alarmId);
+      AlarmInfo info = new AlarmInfo(cursor);
+      long alarmId = info.getAlarmId();
+      AlarmCache.putAlarm(alarmId, info);
+      // Alarms without their own settings row fall back to the defaults.
+      AlarmCache.putSettings(alarmId, cursor.isNull(settingsIdIndex)
+          ? null : new AlarmSettings(cursor));
+      enabled.add(info);
     }
     cursor.close();
     return enabled;
   }
 
+  /**
+   * @return Every distinct tone configured in the settings table, including
+   * the default settings.
+   */
+  public List<String> readToneUris() {
+    ArrayList<String> tones = new ArrayList<>();
+    Cursor cursor = rwDb.query(true, DbHelper.DB_TABLE_SETTINGS,
+        new String[] { DbHelper.SETTINGS_COL_TONE_URL },
+        DbHelper.SETTINGS_COL_TONE_URL + " IS NOT NULL",
+        null, null, null, null, null);
+    while (cursor.moveToNext()) {
+      tones.add(cursor.getString(0));
+    }
+    cursor.close();
+    return tones;
+  }
+
+  /**
+   * @return The media store id and modification time of every indexed
+   * media item.
+   */
+  public HashMap<Long, Long> readMediaIndexModified() {
+    HashMap<Long, Long> modified = new HashMap<>();
+    Cursor cursor = rwDb.query(DbHelper.DB_TABLE_MEDIA_INDEX,
+        new String[] { DbHelper.MEDIA_INDEX_COL__ID,
+            DbHelper.MEDIA_INDEX_COL_MODIFIED },
+        null, null, null, null, null);
+    while (cursor.moveToNext()) {
+      modified.put(cursor.getLong(0), cursor.getLong(1));
+    }
+    cursor.close();
+    return modified;
+  }
+
+  /**
+   * @return Every indexed media item, ordered by title.
+   */
+  public Cursor readMediaIndex() {
+    return rwDb.query(DbHelper.DB_TABLE_MEDIA_INDEX,
+        new String[] { DbHelper.MEDIA_INDEX_COL__ID,
+            DbHelper.MEDIA_INDEX_COL_TITLE,
+            DbHelper.MEDIA_INDEX_COL_ARTIST,
+            DbHelper.MEDIA_INDEX_COL_ALBUM },
+        null, null, null, null,
+        DbHelper.MEDIA_INDEX_COL_TITLE + " COLLATE LOCALIZED ASC");
+  }
+
+  /**
+   * Writes the changed media items and deletes the removed ones, all in one
+   * transaction.
+   */
+  public void updateMediaIndex(List<ContentValues> changed,
+      Collection<Long> removed) {
+    rwDb.beginTransaction();
+    try {
+      for (ContentValues values : changed) {
+        rwDb.replace(DbHelper.DB_TABLE_MEDIA_INDEX, null, values);
+      }
+      for (long mediaId : removed) {
+        rwDb.delete(DbHelper.DB_TABLE_MEDIA_INDEX,
+            DbHelper.MEDIA_INDEX_COL__ID + " = " + mediaId, null);
+      }
+      rwDb.setTransactionSuccessful();
+    } finally {
+      rwDb.endTransaction();
+    }
+  }
+
   public List<Long> getAllAlarms() {
     LinkedList<Long> alarms = new LinkedList<>();
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS,
+    Cursor cursor = rwDb.query(DbHelper.DB_TABLE_ALARMS,
         new String[] { DbHelper.ALARMS_COL__ID },
         null, null, null, null, null);
     while (cursor.moveToNext()) {
@@ -92,62 +389,114 @@ public final class DbAccessor {
   }
 
   public boolean writeAlarmInfo(long alarmId, AlarmInfo info) {
-    return rwDb.update(DbHelper.DB_TABLE_ALARMS, info.contentValues(),
+    boolean success = rwDb.update(DbHelper.DB_TABLE_ALARMS, info.contentValues(),
           DbHelper.ALARMS_COL__ID + " = " + alarmId, null) == 1;
+    if (success && info.getAlarmId() == alarmId) {
+      AlarmCache.putAlarm(alarmId, info);
+    } else {
+      AlarmCache.forgetAlarm(alarmId);
+    }
+    return success;
   }
 
   public Cursor readAlarmInfo() {
-    return rDb.query(DbHelper.DB_TABLE_ALARMS, AlarmInfo.contentColumns(),
-        null, null, null, null, DbHelper.ALARMS_COL_TIME + " ASC");
+    return rwDb.query(DbHelper.DB_TABLE_ALARMS, AlarmInfo.contentColumns(),
+        null, null, null, null, ALARMS_ORDER);
   }
 
   public AlarmInfo readAlarmInfo(long alarmId) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_ALARMS, 
-        AlarmInfo.contentColumns(),
-        DbHelper.ALARMS_COL__ID + " = " + alarmId, null, null, null, null);
+    AlarmCache.Entry<AlarmInfo> cached = AlarmCache.getAlarm(alarmId);
+    if (cached.found) {
+      return cached.value;
+    }
+
+    Cursor cursor = rwDb.rawQuery(SELECT_ALARM_SQL,
+        new String[] { Long.toString(alarmId) });
 
     if (cursor.getCount() != 1) {
       cursor.close();
+      AlarmCache.putAlarm(alarmId, null);
       return null;
     }
 
     cursor.moveToFirst();
     AlarmInfo info = new AlarmInfo(cursor);
     cursor.close();
+    AlarmCache.putAlarm(alarmId, info);
     return info;
   }
 
   public boolean writeAlarmSettings(long alarmId, AlarmSettings settings) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_SETTINGS,
-        new String[] { DbHelper.SETTINGS_COL_ID },
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null, null, null, null);
-
     boolean success;
-    if (cursor.getCount() < 1) {
-      success = rwDb.insert(DbHelper.DB_TABLE_SETTINGS, null, settings.contentValues(alarmId)) >= 0;
+    synchronized (writeSettingsStatement) {
+      SQLiteStatement statement = writeSettingsStatement;
+      // Bound in the order of AlarmSettings.contentColumns().
+      statement.bindLong(1, alarmId);
+      statement.bindString(2, settings.getTone().toString());
+      bindStringOrNull(statement, 3, settings.getToneName());
+      statement.bindLong(4, settings.getSnoozeMinutes());
+      statement.bindLong(5, settings.getVibrate() ? 1 : 0);
+      statement.bindLong(6, settings.getVolumeStartPercent());
+      statement.bindLong(7, settings.getVolumeEndPercent());
+      statement.bindLong(8, settings.getVolumeChangeTimeSec());
+      success = statement.executeInsert() >= 0;
+      statement.clearBindings();
+    }
+    settingsGeneration.incrementAndGet();
+    if (success) {
+      AlarmCache.putSettings(alarmId, settings);
     } else {
-      success = rwDb.update(DbHelper.DB_TABLE_SETTINGS, settings.contentValues(alarmId),
-          DbHelper.SETTINGS_COL_ID + " = " + alarmId, null) == 1;
+      AlarmCache.forgetSettings(alarmId);
     }
-    cursor.close();
     return success;
   }
 
   public AlarmSettings readAlarmSettings(long alarmId) {
-    Cursor cursor = rDb.query(DbHelper.DB_TABLE_SETTINGS, 
-        AlarmSettings.contentColumns(),
-        DbHelper.SETTINGS_COL_ID + " = " + alarmId, null, null, null, null);
+    AlarmCache.Entry<AlarmSettings> cached = AlarmCache.getSettings(alarmId);
+    if (cached.found) {
+      if (cached.value != null) {
+        return cached.value;
+      }
+      if (alarmId == AlarmSettings.DEFAULT_SETTINGS_ID) {
+        return new AlarmSettings();
+      }
+      return readAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID);
+    }
+
+    Cursor cursor = rwDb.rawQuery(SELECT_SETTINGS_SQL,
+        new String[] { Long.toString(alarmId) });
 
     if (cursor.getCount() != 1) {
       cursor.close();
+      AlarmCache.putSettings(alarmId, null);
       if (alarmId == AlarmSettings.DEFAULT_SETTINGS_ID) {
         return new AlarmSettings();
       }
       return readAlarmSettings(AlarmSettings.DEFAULT_SETTINGS_ID);
     }
 
+    cursor.moveToFirst();
     AlarmSettings settings = new AlarmSettings(cursor);
     cursor.close();
+    AlarmCache.putSettings(alarmId, settings);
     return settings;
   }
+
+  private static int executeUpdateDelete(SQLiteStatement statement, long alarmId) {
+    synchronized (statement) {
+      statement.bindLong(1, alarmId);
+      int count = statement.executeUpdateDelete();
+      statement.clearBindings();
+      return count;
+    }
+  }
+
+  static void bindStringOrNull(SQLiteStatement statement, int index,
+      String value) {
+    if (value == null) {
+      statement.bindNull(index);
+    } else {
+      statement.bindString(index, value);
+    }
+  }
 }
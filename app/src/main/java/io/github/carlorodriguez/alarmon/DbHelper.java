@@ -21,7 +21,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 public final class DbHelper extends SQLiteOpenHelper {
   public static final String DB_NAME = "alarmclock";
-  public static final int DB_VERSION = 1;
+  public static final int DB_VERSION = 3;
 
   public static final String DB_TABLE_ALARMS = "alarms";
   public static final String ALARMS_COL__ID = "_id";
@@ -40,10 +40,27 @@ public final class DbHelper extends SQLiteOpenHelper {
   public static final String SETTINGS_COL_VOLUME_ENDING = "vol_end";
   public static final String SETTINGS_COL_VOLUME_TIME = "vol_time";
 
+  // A copy of the audio in the media store, for MediaSearchIndex.  _id is
+  // the media store id and modified its DATE_MODIFIED.
+  public static final String DB_TABLE_MEDIA_INDEX = "media_index";
+  public static final String MEDIA_INDEX_COL__ID = "_id";
+  public static final String MEDIA_INDEX_COL_TITLE = "title";
+  public static final String MEDIA_INDEX_COL_ARTIST = "artist";
+  public static final String MEDIA_INDEX_COL_ALBUM = "album";
+  public static final String MEDIA_INDEX_COL_MODIFIED = "modified";
+
+  // Every alarm joined with its own settings row, if it has one.  Settings
+  // columns are null for alarms which use the defaults.
+  public static final String DB_VIEW_ALARMS_WITH_SETTINGS = "alarms_with_settings";
+
   public DbHelper(Context context) {
     super(context, DB_NAME, null, DB_VERSION);
   }
 
+  /**
+   * Creates the version 1 schema and then applies every upgrade, so that a
+   * new database goes through exactly the same steps as an upgraded one.
+   */
   @Override
   public void onCreate(SQLiteDatabase db) {
     // Alarm metadata table:
@@ -68,9 +85,62 @@ public final class DbHelper extends SQLiteOpenHelper {
         + SETTINGS_COL_VOLUME_STARTING + " UNSIGNED INTEGER (1, 100),"
         + SETTINGS_COL_VOLUME_ENDING + " UNSIGNED INTEGER (1, 100),"
         + SETTINGS_COL_VOLUME_TIME + " UNSIGNED INTEGER (1, 60))");
+
+    onUpgrade(db, 1, DB_VERSION);
   }
 
+  /**
+   * Applies each schema change between the two versions in order.  To change
+   * the schema, bump DB_VERSION and add a case for the new version.  Never
+   * edit an existing case, since databases in the field have already run it.
+   */
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    for (int version = oldVersion + 1; version <= newVersion; ++version) {
+      switch (version) {
+        case 2:
+          upgradeToVersion2(db);
+          break;
+        case 3:
+          upgradeToVersion3(db);
+          break;
+        default:
+          throw new IllegalStateException("No upgrade to version " + version);
+      }
+    }
+  }
+
+  private static void upgradeToVersion2(SQLiteDatabase db) {
+    // readEnabledAlarms() filters on enabled and the alarm list sorts on time.
+    db.execSQL("CREATE INDEX alarms_enabled ON " + DB_TABLE_ALARMS
+        + " (" + ALARMS_COL_ENABLED + ")");
+    db.execSQL("CREATE INDEX alarms_time ON " + DB_TABLE_ALARMS
+        + " (" + ALARMS_COL_TIME + ")");
+    // Lets an alarm and its settings be read with one query.
+    db.execSQL("CREATE VIEW " + DB_VIEW_ALARMS_WITH_SETTINGS + " AS SELECT "
+        + "a." + ALARMS_COL__ID + " AS " + ALARMS_COL__ID + ", "
+        + "a." + ALARMS_COL_NAME + " AS " + ALARMS_COL_NAME + ", "
+        + "a." + ALARMS_COL_DAY_OF_WEEK + " AS " + ALARMS_COL_DAY_OF_WEEK + ", "
+        + "a." + ALARMS_COL_TIME + " AS " + ALARMS_COL_TIME + ", "
+        + "a." + ALARMS_COL_ENABLED + " AS " + ALARMS_COL_ENABLED + ", "
+        + "s." + SETTINGS_COL_ID + " AS " + SETTINGS_COL_ID + ", "
+        + "s." + SETTINGS_COL_TONE_URL + " AS " + SETTINGS_COL_TONE_URL + ", "
+        + "s." + SETTINGS_COL_TONE_NAME + " AS " + SETTINGS_COL_TONE_NAME + ", "
+        + "s." + SETTINGS_COL_SNOOZE + " AS " + SETTINGS_COL_SNOOZE + ", "
+        + "s." + SETTINGS_COL_VIBRATE + " AS " + SETTINGS_COL_VIBRATE + ", "
+        + "s." + SETTINGS_COL_VOLUME_STARTING + " AS " + SETTINGS_COL_VOLUME_STARTING + ", "
+        + "s." + SETTINGS_COL_VOLUME_ENDING + " AS " + SETTINGS_COL_VOLUME_ENDING + ", "
+        + "s." + SETTINGS_COL_VOLUME_TIME + " AS " + SETTINGS_COL_VOLUME_TIME
+        + " FROM " + DB_TABLE_ALARMS + " a LEFT JOIN " + DB_TABLE_SETTINGS + " s"
+        + " ON s." + SETTINGS_COL_ID + " = a." + ALARMS_COL__ID);
+  }
+
+  private static void upgradeToVersion3(SQLiteDatabase db) {
+    db.execSQL("CREATE TABLE " + DB_TABLE_MEDIA_INDEX + " ("
+        + MEDIA_INDEX_COL__ID + " INTEGER PRIMARY KEY, "
+        + MEDIA_INDEX_COL_TITLE + " TEXT, "
+        + MEDIA_INDEX_COL_ARTIST + " TEXT, "
+        + MEDIA_INDEX_COL_ALBUM + " TEXT, "
+        + MEDIA_INDEX_COL_MODIFIED + " INTEGER)");
   }
 }
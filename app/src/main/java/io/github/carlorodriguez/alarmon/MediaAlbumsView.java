@@ -15,7 +15,7 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import android.app.Activity;
+import android.app.LoaderManager;
 import android.content.Context;
 import android.media.MediaPlayer;
 import android.net.Uri;
@@ -55,9 +55,20 @@ public class MediaAlbumsView extends MediaListView {
   }
 
   @Override
-  public void setCursorManager(Activity activity) {
-    super.setCursorManager(activity);
-    songsView.setCursorManager(activity);
+  public void setLoaderManager(LoaderManager loaderManager, int loaderId) {
+    super.setLoaderManager(loaderManager, loaderId);
+    songsView.setLoaderManager(loaderManager, loaderId + 1);
+  }
+
+  @Override
+  public int loaderCount() {
+    return 1 + songsView.loaderCount();
+  }
+
+  @Override
+  public void destroyLoader() {
+    super.destroyLoader();
+    songsView.destroyLoader();
   }
 
   @Override
@@ -85,6 +96,9 @@ public class MediaAlbumsView extends MediaListView {
 
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    if (id == LOADING_INDEX) {
+      return;
+    }
     super.onItemClick(parent, view, position, id);
     songsView.query(Media.EXTERNAL_CONTENT_URI, AlbumColumns.ALBUM_KEY + " = '" + getLastSelectedName() + "'");
     getFlipper().setInAnimation(getContext(), R.anim.slide_in_left);
@@ -15,7 +15,7 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import android.app.Activity;
+import android.app.LoaderManager;
 import android.content.Context;
 import android.media.MediaPlayer;
 import android.net.Uri;
@@ -53,9 +53,20 @@ public class MediaArtistsView extends MediaListView {
   }
 
   @Override
-  public void setCursorManager(Activity activity) {
-    super.setCursorManager(activity);
-    albumsView.setCursorManager(activity);
+  public void setLoaderManager(LoaderManager loaderManager, int loaderId) {
+    super.setLoaderManager(loaderManager, loaderId);
+    albumsView.setLoaderManager(loaderManager, loaderId + 1);
+  }
+
+  @Override
+  public int loaderCount() {
+    return 1 + albumsView.loaderCount();
+  }
+
+  @Override
+  public void destroyLoader() {
+    super.destroyLoader();
+    albumsView.destroyLoader();
   }
 
   @Override
@@ -83,6 +94,9 @@ public class MediaArtistsView extends MediaListView {
 
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    if (id == LOADING_INDEX) {
+      return;
+    }
     super.onItemClick(parent, view, position, id);
     albumsView.query(Albums.EXTERNAL_CONTENT_URI, ArtistColumns.ARTIST_KEY + " = '" + getLastSelectedName() + "'");
     getFlipper().setInAnimation(getContext(), R.anim.slide_in_left);
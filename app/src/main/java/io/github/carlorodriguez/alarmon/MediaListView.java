@@ -19,8 +19,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 import android.Manifest;
-import android.app.Activity;
+import android.app.LoaderManager;
 import android.content.Context;
+import android.content.CursorLoader;
+import android.content.Loader;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.MatrixCursor;
@@ -28,6 +30,7 @@ import android.database.MergeCursor;
 import android.graphics.Typeface;
 import android.media.MediaPlayer;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
@@ -45,21 +48,35 @@ import android.widget.SimpleCursorAdapter.ViewBinder;
  * An extension to the ListView widget specialized for selecting audio media.
  * Use one of the concrete implementations MediaSongsView, MediaArtistsView
  * or MediaAlbumsView.
+ *
+ * Media is queried in the background through a CursorLoader, and a
+ * placeholder row is shown until it arrives.  The loader only fills the
+ * cursor's first window; the rest is fetched as the list is scrolled.
  */
-public class MediaListView extends ListView implements OnItemClickListener {
+public class MediaListView extends ListView implements OnItemClickListener,
+    LoaderManager.LoaderCallbacks<Cursor> {
   public interface OnItemPickListener {
     void onItemPick(Uri uri, String name);
   }
 
   protected static int DEFAULT_TONE_INDEX = -69;
+  protected static int LOADING_INDEX = -70;
 
   private Cursor cursor;
   private Cursor staticCursor;
+  // The loader's latest cursor, and whether search results are shown
+  // instead of it.
+  private Cursor loadedCursor;
+  private boolean searching;
+  private SimpleCursorAdapter adapter;
   private MediaPlayer mPlayer;
   private ViewFlipper flipper;
-  private Activity cursorManager;
+  private LoaderManager loaderManager;
+  private int loaderId;
   private Uri contentUri;
   private String nameColumn;
+  private String selection;
+  private String[] queryColumns;
   private String sortOrder;
   private OnItemPickListener listener;
 
@@ -117,17 +134,40 @@ public class MediaListView extends ListView implements OnItemClickListener {
     return flipper;
   }
 
-  public void setCursorManager(Activity activity) {
-    this.cursorManager = activity;
+  /**
+   * Sets the loader manager which runs this view's queries, under loaderId.
+   * Views which own nested views pass them the following ids, see
+   * loaderCount().
+   */
+  public void setLoaderManager(LoaderManager loaderManager, int loaderId) {
+    this.loaderManager = loaderManager;
+    this.loaderId = loaderId;
+  }
+
+  /**
+   * @return The number of loader ids used by this view and the views nested
+   * in it.
+   */
+  public int loaderCount() {
+    return 1;
   }
 
-  protected void manageCursor(Cursor cursor) {
-    cursorManager.startManagingCursor(cursor);
+  /**
+   * Stops the queries of this view and the views nested in it.
+   */
+  public void destroyLoader() {
+    if (loaderManager != null) {
+      loaderManager.destroyLoader(loaderId);
+    }
   }
 
   protected void query(Uri contentUri, String nameColumn, String selection,
       int rowResId, String[] displayColumns, int[] resIDs) {
+    this.contentUri = contentUri;
     this.nameColumn = nameColumn;
+    this.selection = selection;
+    this.loadedCursor = null;
+    this.searching = false;
     final ArrayList<String> queryColumns =
       new ArrayList<>(displayColumns.length + 1);
     queryColumns.addAll(Arrays.asList(displayColumns));
@@ -136,31 +176,10 @@ public class MediaListView extends ListView implements OnItemClickListener {
     if (!queryColumns.contains(BaseColumns._ID)) {
       queryColumns.add(BaseColumns._ID);
     }
+    this.queryColumns = queryColumns.toArray(new String[queryColumns.size()]);
 
-      Cursor dbCursor;
-
-      if (ContextCompat.checkSelfPermission(getContext(),
-              Manifest.permission.READ_EXTERNAL_STORAGE)
-              == PackageManager.PERMISSION_GRANTED) {
-          dbCursor = getContext().getContentResolver().query(
-                  contentUri, queryColumns.toArray(new String[queryColumns.size()]),
-                  selection, null, sortOrder);
-      } else {
-          dbCursor = new MatrixCursor(queryColumns.toArray(new String[queryColumns.size()]));
-      }
-
-    if (staticCursor != null) {
-      Cursor[] cursors = new Cursor[] { staticCursor, dbCursor };
-      cursor = new MergeCursor(cursors);
-    } else {
-      cursor = dbCursor;
-    }
-    manageCursor(cursor);
-
-    this.contentUri = contentUri;
-
-    final SimpleCursorAdapter adapter = new SimpleCursorAdapter(
-        getContext(), rowResId, cursor, displayColumns, resIDs, 1);
+    adapter = new SimpleCursorAdapter(
+        getContext(), rowResId, null, displayColumns, resIDs, 0);
     // Use a custom binder to highlight the selected element.
     adapter.setViewBinder(new ViewBinder() {
       @Override
@@ -178,6 +197,81 @@ public class MediaListView extends ListView implements OnItemClickListener {
       }});
     setAdapter(adapter);
     setOnItemClickListener(this);
+
+    if (ContextCompat.checkSelfPermission(getContext(),
+            Manifest.permission.READ_EXTERNAL_STORAGE)
+            == PackageManager.PERMISSION_GRANTED) {
+      showCursor(placeholderCursor());
+      loaderManager.restartLoader(loaderId, null, this);
+    } else {
+      loadedCursor = new MatrixCursor(this.queryColumns);
+      showCursor(loadedCursor);
+    }
+  }
+
+  // A single "Loading" row, in the columns of the query.
+  private Cursor placeholderCursor() {
+    final MatrixCursor placeholder = new MatrixCursor(queryColumns);
+    Object[] row = new Object[queryColumns.length];
+    row[0] = getContext().getString(R.string.loading);
+    row[Arrays.asList(queryColumns).indexOf(BaseColumns._ID)] = LOADING_INDEX;
+    placeholder.addRow(row);
+    return placeholder;
+  }
+
+  // Swaps rather than changes the cursor, the loader closes its own cursors.
+  private void showCursor(Cursor dbCursor) {
+    if (staticCursor != null) {
+      Cursor[] cursors = new Cursor[] { staticCursor, dbCursor };
+      cursor = new MergeCursor(cursors);
+    } else {
+      cursor = dbCursor;
+    }
+    adapter.swapCursor(cursor);
+  }
+
+  @Override
+  public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+    return new CursorLoader(getContext(), contentUri, queryColumns,
+        selection, null, sortOrder);
+  }
+
+  @Override
+  public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    if (data == null) {
+      data = new MatrixCursor(queryColumns);
+    }
+    loadedCursor = data;
+    if (!searching) {
+      showCursor(data);
+    }
+  }
+
+  @Override
+  public void onLoaderReset(Loader<Cursor> loader) {
+    loadedCursor = null;
+    if (!searching) {
+      cursor = null;
+      adapter.swapCursor(null);
+    }
+  }
+
+  /**
+   * Shows results in place of the queried media, or the queried media again
+   * if results is null.  The results must have the columns of the query.
+   */
+  protected void showSearchResults(Cursor results) {
+    if (adapter == null) {
+      return;
+    }
+    searching = results != null;
+    if (searching) {
+      showCursor(results);
+    } else if (loadedCursor != null) {
+      showCursor(loadedCursor);
+    } else {
+      showCursor(placeholderCursor());
+    }
   }
 
   public void overrideSortOrder(String sortOrder) {
@@ -204,6 +298,9 @@ public class MediaListView extends ListView implements OnItemClickListener {
 
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    if (id == LOADING_INDEX) {
+      return;
+    }
     setItemChecked(position, true);
     cursor.moveToPosition(position);
     selectedName = cursor.getString(cursor.getColumnIndex(nameColumn));
@@ -17,6 +17,8 @@ package io.github.carlorodriguez.alarmon;
 
 import io.github.carlorodriguez.alarmon.MediaListView.OnItemPickListener;
 
+import java.util.HashSet;
+
 import android.app.Activity;
 import android.content.DialogInterface;
 import android.media.MediaPlayer;
@@ -26,7 +28,10 @@ import android.provider.MediaStore.Audio.Albums;
 import android.provider.MediaStore.Audio.Artists;
 import android.provider.MediaStore.Audio.Media;
 import android.support.v7.app.AlertDialog;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.widget.EditText;
 import android.widget.TabHost;
 import android.widget.TextView;
 import android.widget.ViewFlipper;
@@ -37,20 +42,25 @@ import android.widget.TabHost.OnTabChangeListener;
  * It allows you to access media through 4 tabs:  One that lists media
  * stored internally on the phone, and three that allow you to access
  * the media stored on the SD card.  These three tabs allow you to browse by
- * artist, album, and song.
+ * artist, album, and song.  Each tab queries its media in the background the
+ * first time it is shown.
  */
 public class MediaPickerDialog extends AlertDialog {
   public interface OnMediaPickListener {
     void onMediaPick(String name, Uri media);
   }
 
+  private final String INTERNAL_TAB = "internal";
   private final String ARTISTS_TAB = "artists";
   private final String ALBUMS_TAB = "albums";
+  private final String ALL_SONGS_TAB = "songs";
 
   private String selectedName;
   private Uri selectedUri;
   private OnMediaPickListener pickListener;
   private MediaPlayer mediaPlayer;
+  private final MediaListView[] lists;
+  private final HashSet<String> loadedTabs = new HashSet<>();
 
   public MediaPickerDialog(final Activity context) {
     super(context);
@@ -63,13 +73,10 @@ public class MediaPickerDialog extends AlertDialog {
     TabHost tabs = (TabHost) body_view.findViewById(R.id.media_tabs);
     tabs.setup();
 
-    final String INTERNAL_TAB = "internal";
-    final String ALL_SONGS_TAB = "songs";
-
     tabs.addTab(tabs.newTabSpec(INTERNAL_TAB).setContent(R.id.media_picker_internal).setIndicator(context.getString(R.string.internal)));
     tabs.addTab(tabs.newTabSpec(ARTISTS_TAB).setContent(R.id.media_picker_artists).setIndicator(context.getString(R.string.artists)));
     tabs.addTab(tabs.newTabSpec(ALBUMS_TAB).setContent(R.id.media_picker_albums).setIndicator(context.getString(R.string.albums)));
-    tabs.addTab(tabs.newTabSpec(ALL_SONGS_TAB).setContent(R.id.media_picker_songs).setIndicator(context.getString(R.string.songs)));
+    tabs.addTab(tabs.newTabSpec(ALL_SONGS_TAB).setContent(R.id.media_picker_songs_tab).setIndicator(context.getString(R.string.songs)));
 
     final TextView lastSelected = (TextView) body_view.findViewById(R.id.media_picker_status);
     final OnItemPickListener listener = new OnItemPickListener() {
@@ -82,34 +89,57 @@ public class MediaPickerDialog extends AlertDialog {
     };
 
     final MediaSongsView internalList = (MediaSongsView) body_view.findViewById(R.id.media_picker_internal);
-    internalList.setCursorManager(context);
     internalList.includeDefault();
-    internalList.query(Media.INTERNAL_CONTENT_URI);
     internalList.setMediaPlayer(mediaPlayer);
     internalList.setMediaPickListener(listener);
 
     final MediaSongsView songsList = (MediaSongsView) body_view.findViewById(R.id.media_picker_songs);
-    songsList.setCursorManager(context);
-    songsList.query(Media.EXTERNAL_CONTENT_URI);
     songsList.setMediaPlayer(mediaPlayer);
     songsList.setMediaPickListener(listener);
 
+    // Searches the index as the user types, and again once the index has
+    // caught up with the media store.
+    final EditText search = (EditText) body_view.findViewById(R.id.media_picker_search);
+    final Runnable applySearch = new Runnable() {
+      @Override
+      public void run() {
+        songsList.search(search.getText().toString());
+      }
+    };
+    search.addTextChangedListener(new TextWatcher() {
+      @Override
+      public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+      @Override
+      public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+      @Override
+      public void afterTextChanged(Editable s) {
+        applySearch.run();
+      }
+    });
+
     final ViewFlipper artistsFlipper = (ViewFlipper) body_view.findViewById(R.id.media_picker_artists);
     final MediaArtistsView artistsList = new MediaArtistsView(context);
-    artistsList.setCursorManager(context);
     artistsList.addToFlipper(artistsFlipper);
-    artistsList.query(Artists.EXTERNAL_CONTENT_URI);
     artistsList.setMediaPlayer(mediaPlayer);
     artistsList.setMediaPickListener(listener);
 
     final ViewFlipper albumsFlipper = (ViewFlipper) body_view.findViewById(R.id.media_picker_albums);
     final MediaAlbumsView albumsList = new MediaAlbumsView(context);
-    albumsList.setCursorManager(context);
     albumsList.addToFlipper(albumsFlipper);
-    albumsList.query(Albums.EXTERNAL_CONTENT_URI);
     albumsList.setMediaPlayer(mediaPlayer);
     albumsList.setMediaPickListener(listener);
 
+    // Give every list, nested ones included, loader ids of its own.
+    lists = new MediaListView[] {
+        internalList, songsList, artistsList, albumsList };
+    int loaderId = 0;
+    for (MediaListView list : lists) {
+      list.setLoaderManager(context.getLoaderManager(), loaderId);
+      loaderId += list.loaderCount();
+    }
+
     tabs.setOnTabChangedListener(new OnTabChangeListener() {
       @Override
       public void onTabChanged(String tabId) {
@@ -118,8 +148,29 @@ public class MediaPickerDialog extends AlertDialog {
         } else if (tabId.equals(ALBUMS_TAB)) {
           albumsFlipper.setDisplayedChild(0);
         }
+        if (!loadedTabs.add(tabId)) {
+          return;
+        }
+        switch (tabId) {
+          case INTERNAL_TAB:
+            internalList.query(Media.INTERNAL_CONTENT_URI);
+            break;
+          case ARTISTS_TAB:
+            artistsList.query(Artists.EXTERNAL_CONTENT_URI);
+            break;
+          case ALBUMS_TAB:
+            albumsList.query(Albums.EXTERNAL_CONTENT_URI);
+            break;
+          case ALL_SONGS_TAB:
+            songsList.query(Media.EXTERNAL_CONTENT_URI);
+            MediaSearchIndex.update(context, applySearch);
+            break;
+        }
       }
     });
+    // The listener isn't told about the tab shown first.
+    loadedTabs.add(INTERNAL_TAB);
+    internalList.query(Media.INTERNAL_CONTENT_URI);
 
     super.setButton(BUTTON_POSITIVE, getContext().getString(R.string.ok),
       new OnClickListener() {
@@ -153,6 +204,10 @@ public class MediaPickerDialog extends AlertDialog {
   protected void onStop() {
     super.onStop();
     mediaPlayer.stop();
+    // The loaders belong to the activity, which outlives this dialog.
+    for (MediaListView list : lists) {
+      list.destroyLoader();
+    }
   }
 
   @Override
@@ -0,0 +1,281 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.Manifest;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.BaseColumns;
+import android.provider.MediaStore.Audio.Media;
+import android.provider.MediaStore.MediaColumns;
+import android.support.v4.content.ContextCompat;
+
+/**
+ * A search index over the titles, artists and albums of the songs on the SD
+ * card, for the tone picker.  The index is kept in the media_index table and
+ * brought up to date in the background by update(), which only writes the
+ * songs which were added, changed or removed since the last update.
+ *
+ * Searches run against an in-memory snapshot of the table: every field,
+ * lower cased, concatenated into a single string.  A search is one pass of
+ * indexOf() over that string, so it takes a few milliseconds even with
+ * thousands of songs and can run on the UI thread as the user types.
+ */
+public final class MediaSearchIndex {
+  // Separate the fields of a song, and the songs.  Neither can be typed in
+  // a search, so no match spans two fields.
+  private static final char FIELD_SEPARATOR = '\u0000';
+  private static final char SONG_SEPARATOR = '\n';
+
+  private static final ExecutorService indexer =
+      Executors.newSingleThreadExecutor();
+  private static volatile Snapshot snapshot;
+
+  private MediaSearchIndex() {}
+
+  private static final class Snapshot {
+    final long[] ids;
+    final String[] titles;
+    // Where each song starts in text.
+    final int[] starts;
+    final String text;
+
+    Snapshot(long[] ids, String[] titles, int[] starts, String text) {
+      this.ids = ids;
+      this.titles = titles;
+      this.starts = starts;
+      this.text = text;
+    }
+
+    int songAt(int offset) {
+      int index = Arrays.binarySearch(starts, offset);
+      return index >= 0 ? index : -index - 2;
+    }
+
+    int songEnd(int song) {
+      return song + 1 < starts.length ? starts[song + 1] : text.length();
+    }
+  }
+
+  /**
+   * Brings the index up to date with the media store in the background.
+   *
+   * @param ready Run on the main thread whenever the searchable songs
+   * change, may be null.
+   */
+  public static void update(Context context, final Runnable ready) {
+    final Context c = context.getApplicationContext();
+    final Handler main = new Handler(Looper.getMainLooper());
+    indexer.execute(new Runnable() {
+      @Override
+      public void run() {
+        DbAccessor db = DbAccessor.acquire(c);
+        try {
+          // Searches can use what was indexed last time while the media
+          // store is checked.
+          if (snapshot == null) {
+            publish(db, main, ready);
+          }
+          if (sync(c, db)) {
+            publish(db, main, ready);
+          }
+        } catch (Exception e) {
+          e.printStackTrace();
+        } finally {
+          db.release();
+        }
+      }
+    });
+  }
+
+  /**
+   * Finds the songs with a title, artist or album containing query.  Songs
+   * where it is found at the start of a word come first, then the others,
+   * each in title order.
+   *
+   * @return The songs found, in the columns of MediaSongsView.
+   */
+  public static Cursor search(String query, int limit) {
+    final MatrixCursor results = new MatrixCursor(new String[] {
+        MediaColumns.TITLE, BaseColumns._ID });
+    final Snapshot s = snapshot;
+    if (s == null) {
+      return results;
+    }
+    for (int match : find(s, query, limit)) {
+      results.addRow(new Object[] { s.titles[match], s.ids[match] });
+    }
+    return results;
+  }
+
+  /**
+   * @return The ids of the songs search() finds, in the same order.
+   */
+  static long[] searchIds(String query, int limit) {
+    final Snapshot s = snapshot;
+    if (s == null) {
+      return new long[0];
+    }
+    int[] matches = find(s, query, limit);
+    long[] ids = new long[matches.length];
+    for (int i = 0; i < matches.length; ++i) {
+      ids[i] = s.ids[matches[i]];
+    }
+    return ids;
+  }
+
+  // Returns the indexes of the songs found.
+  private static int[] find(Snapshot s, String query, int limit) {
+    final String needle = query.trim().toLowerCase(Locale.getDefault());
+    if (needle.length() == 0) {
+      return new int[0];
+    }
+
+    ArrayList<Integer> prefixMatches = new ArrayList<>();
+    ArrayList<Integer> substringMatches = new ArrayList<>();
+    int song = -1;
+    boolean songIsPrefix = false;
+    int hit = s.text.indexOf(needle);
+    while (hit >= 0 && prefixMatches.size() < limit) {
+      int hitSong = s.songAt(hit);
+      boolean prefix = hit == s.starts[hitSong]
+          || !Character.isLetterOrDigit(s.text.charAt(hit - 1));
+      if (hitSong != song) {
+        song = hitSong;
+        songIsPrefix = prefix;
+        (prefix ? prefixMatches : substringMatches).add(song);
+      } else if (prefix && !songIsPrefix) {
+        // A word further into the song starts with the query.
+        substringMatches.remove(substringMatches.size() - 1);
+        prefixMatches.add(song);
+        songIsPrefix = true;
+      }
+      // Only a substring match can still get better.
+      hit = s.text.indexOf(needle, songIsPrefix ? s.songEnd(song) : hit + 1);
+    }
+
+    prefixMatches.addAll(substringMatches);
+    int[] matches = new int[Math.min(prefixMatches.size(), limit)];
+    for (int i = 0; i < matches.length; ++i) {
+      matches[i] = prefixMatches.get(i);
+    }
+    return matches;
+  }
+
+  // Returns whether anything changed.
+  private static boolean sync(Context c, DbAccessor db) {
+    if (ContextCompat.checkSelfPermission(c,
+            Manifest.permission.READ_EXTERNAL_STORAGE)
+            != PackageManager.PERMISSION_GRANTED) {
+      return false;
+    }
+    Cursor media = c.getContentResolver().query(Media.EXTERNAL_CONTENT_URI,
+        new String[] { BaseColumns._ID, MediaColumns.DATE_MODIFIED,
+            MediaColumns.TITLE, Media.ARTIST, Media.ALBUM },
+        null, null, null);
+    if (media == null) {
+      return false;
+    }
+    // Whatever is left in here once the media store has been read was
+    // removed from it.
+    HashMap<Long, Long> removed = db.readMediaIndexModified();
+    ArrayList<ContentValues> changed = new ArrayList<>();
+    try {
+      while (media.moveToNext()) {
+        long mediaId = media.getLong(0);
+        long modified = media.getLong(1);
+        Long indexed = removed.remove(mediaId);
+        if (indexed != null && indexed == modified) {
+          continue;
+        }
+        ContentValues values = new ContentValues();
+        values.put(DbHelper.MEDIA_INDEX_COL__ID, mediaId);
+        values.put(DbHelper.MEDIA_INDEX_COL_MODIFIED, modified);
+        values.put(DbHelper.MEDIA_INDEX_COL_TITLE, media.getString(2));
+        values.put(DbHelper.MEDIA_INDEX_COL_ARTIST, media.getString(3));
+        values.put(DbHelper.MEDIA_INDEX_COL_ALBUM, media.getString(4));
+        changed.add(values);
+      }
+    } finally {
+      media.close();
+    }
+    if (changed.isEmpty() && removed.isEmpty()) {
+      return false;
+    }
+    db.updateMediaIndex(changed, removed.keySet());
+    return true;
+  }
+
+  private static void publish(DbAccessor db, Handler main,
+      Runnable ready) {
+    Cursor cursor = db.readMediaIndex();
+    try {
+      int count = cursor.getCount();
+      long[] ids = new long[count];
+      String[][] fields = new String[count][];
+      for (int i = 0; cursor.moveToNext(); ++i) {
+        ids[i] = cursor.getLong(0);
+        fields[i] = new String[] { cursor.getString(1), cursor.getString(2),
+            cursor.getString(3) };
+      }
+      setSongs(ids, fields);
+    } finally {
+      cursor.close();
+    }
+    if (ready != null) {
+      main.post(ready);
+    }
+  }
+
+  /**
+   * Replaces the songs which are searched.
+   *
+   * @param fields The title, artist and album of each song, any of which
+   * may be null.  Songs are listed in the order results are wanted in.
+   */
+  static void setSongs(long[] ids, String[][] fields) {
+    String[] titles = new String[ids.length];
+    int[] starts = new int[ids.length];
+    StringBuilder text = new StringBuilder();
+    Locale locale = Locale.getDefault();
+    for (int i = 0; i < ids.length; ++i) {
+      titles[i] = fields[i][0];
+      starts[i] = text.length();
+      for (int field = 0; field < fields[i].length; ++field) {
+        if (field > 0) {
+          text.append(FIELD_SEPARATOR);
+        }
+        if (fields[i][field] != null) {
+          text.append(fields[i][field].toLowerCase(locale));
+        }
+      }
+      text.append(SONG_SEPARATOR);
+    }
+    snapshot = new Snapshot(ids, titles, starts, text.toString());
+  }
+}
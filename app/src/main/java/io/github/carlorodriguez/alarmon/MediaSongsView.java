@@ -39,6 +39,8 @@ public class MediaSongsView extends MediaListView implements OnItemClickListener
       R.id.media_value,
   };
 
+  private static final int SEARCH_LIMIT = 200;
+
   public MediaSongsView(Context context) {
     this(context, null);
   }
@@ -62,6 +64,9 @@ public class MediaSongsView extends MediaListView implements OnItemClickListener
 
   @Override
   public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+    if (id == LOADING_INDEX) {
+      return;
+    }
     super.onItemClick(parent, view, position, id);
 
     MediaPlayer mPlayer = getMediaPlayer();
@@ -78,6 +83,18 @@ public class MediaSongsView extends MediaListView implements OnItemClickListener
     }
   }
 
+  /**
+   * Shows the songs matching query in MediaSearchIndex, or every song again
+   * if query is empty.
+   */
+  public void search(String query) {
+    if (query.trim().length() == 0) {
+      showSearchResults(null);
+    } else {
+      showSearchResults(MediaSearchIndex.search(query, SEARCH_LIMIT));
+    }
+  }
+
   public void includeDefault() {
     final ArrayList<String> defaultColumns =
       new ArrayList<>(songsColumns.length + 1);
@@ -0,0 +1,118 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.TimeZone;
+
+/**
+ * Computes the instant at which an alarm fires next using plain arithmetic
+ * on epoch-millis, rather than stepping a Calendar one day at a time.
+ * Local wall clock times are resolved the same way GregorianCalendar
+ * resolves a time skipped by a daylight saving gap: it is shifted forward
+ * by the size of the gap.  A time repeated by an overlap resolves to its
+ * first occurrence, so the alarm rings the first time the clock shows it.
+ */
+public final class NextOccurrence {
+  public static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000;
+  public static final int SECONDS_PER_DAY = 24 * 60 * 60;
+
+  // January 1st 1970 was a Thursday (Week.Day.THU).
+  private static final int EPOCH_DAY_OF_WEEK = 4;
+  private static final int ALL_DAYS = 0x7F;
+
+  private NextOccurrence() {}
+
+  /**
+   * @param now The epoch-millis to search forward from.
+   * @param secondsAfterMidnight Wall clock time of the alarm (0 to 86399).
+   * @param dayMask Days on which the alarm repeats, with bit n set for
+   *     Week.Day ordinal n.  Zero means the alarm does not repeat.
+   * @param zone The time zone the wall clock time is expressed in.
+   * @return The epoch-millis of the first matching time that is not before
+   *     now.  On a day where the time occurs twice, only the first occurrence
+   *     counts so that an alarm never rings twice in one night.
+   */
+  public static long after(long now, int secondsAfterMidnight, int dayMask,
+      TimeZone zone) {
+    long localNow = now + zone.getOffset(now);
+    long day = floorDiv(localNow, MILLIS_PER_DAY);
+
+    // If this time has already occurred today, start looking tomorrow.
+    if (toEpochMillis(day, secondsAfterMidnight, zone) < now) {
+      ++day;
+    }
+
+    dayMask &= ALL_DAYS;
+    if (dayMask != 0) {
+      // Rotate the mask so that bit 0 is the candidate day.  The number of
+      // trailing zeros is then the number of days to skip.
+      int dayOfWeek = (int) floorMod(day + EPOCH_DAY_OF_WEEK, 7);
+      int rotated = ((dayMask >>> dayOfWeek) | (dayMask << (7 - dayOfWeek)))
+          & ALL_DAYS;
+      day += Integer.numberOfTrailingZeros(rotated);
+    }
+
+    return toEpochMillis(day, secondsAfterMidnight, zone);
+  }
+
+  /**
+   * Converts a local day (days since the epoch in local time) and a wall
+   * clock time on that day into epoch-millis.
+   */
+  public static long toEpochMillis(long day, int secondsAfterMidnight,
+      TimeZone zone) {
+    long local = day * MILLIS_PER_DAY + secondsAfterMidnight * 1000L;
+
+    // The offsets in effect a day either side of this time bracket any
+    // transition that could affect it.  An offset is consistent if applying
+    // it lands on an instant which uses that same offset.
+    int before = zone.getOffset(local - MILLIS_PER_DAY);
+    int after = zone.getOffset(local + MILLIS_PER_DAY);
+    boolean beforeValid = zone.getOffset(local - before) == before;
+    boolean afterValid = zone.getOffset(local - after) == after;
+
+    if (beforeValid != afterValid) {
+      return local - (beforeValid ? before : after);
+    }
+    if (beforeValid) {
+      // An overlap: take the larger offset, which gives the earlier instant.
+      return local - Math.max(before, after);
+    }
+    // A gap: take the smaller offset, which moves the time past the gap.
+    return local - Math.min(before, after);
+  }
+
+  /**
+   * @return The local wall clock time of the given instant in seconds after
+   *     midnight.
+   */
+  public static int secondsAfterMidnight(long epochMillis, TimeZone zone) {
+    long local = epochMillis + zone.getOffset(epochMillis);
+    return (int) (floorMod(local, MILLIS_PER_DAY) / 1000);
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x < 0) != (y < 0))) {
+      --q;
+    }
+    return q;
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+}
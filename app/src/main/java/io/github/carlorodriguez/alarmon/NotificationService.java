@@ -15,6 +15,8 @@
 
 package io.github.carlorodriguez.alarmon;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 
 import android.app.Notification;
@@ -32,7 +34,9 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.os.Vibrator;
+import android.widget.Toast;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.ContextCompat;
 
@@ -48,6 +52,12 @@ import android.support.v4.content.ContextCompat;
  * alarms).
  */
 public class NotificationService extends Service {
+  // The notification shown while an alarm is firing.  It is separate from
+  // the AlarmClockService one so that neither overwrites the other.
+  public final static int FIRING_NOTIFICATION_ID = 70;
+  // SystemClock.elapsedRealtime() at which ReceiverAlarm went off.
+  public final static String EXTRA_RECEIVED_AT = "received_at";
+
   public class NoAlarmsException extends Exception {
     private static final long serialVersionUID = 1L;
   }
@@ -63,9 +73,54 @@ public class NotificationService extends Service {
     private Vibrator vibrator = null;
     private int systemNotificationVolume = 0;
 
+    // The media player is prepared with the tone of the next alarm ahead of
+    // time, see prewarm().  These track which tone it holds, if any.
+    private Uri preparedTone = null;
+    private Uri preparingTone = null;
+    // Set when play() finds its tone still preparing, at the uptime in
+    // startWhenPreparedSince.  If the tone isn't prepared by the deadline,
+    // ensureSound() gives up on it.
+    private Runnable startWhenPrepared = null;
+    private long startWhenPreparedSince = 0;
+    private static final long PREPARE_DEADLINE_MILLIS =
+        3 * AlarmUtil.Interval.SECOND.millis();
+    // Whether an alarm is firing.  The player is not touched by prewarm()
+    // while it is.
+    private boolean held = false;
+    // The tone last asked for by prewarm(), prepared again once the firing
+    // alarm is done with the player.  The next alarm is often the same one
+    // as before, so prewarm() is not asked again.
+    private Uri nextTone = null;
+    // Plays the tone instead of the media player when it has been decoded
+    // into the ToneCache, see AppSettings.usePcmTones().
+    private PcmTonePlayer pcmPlayer = null;
+    private float volume = 1;
+
     MediaSingleton() {
       mediaPlayer = new MediaPlayer();
       mediaPlayer.setAudioStreamType(AudioManager.STREAM_ALARM);
+      mediaPlayer.setOnPreparedListener(new MediaPlayer.OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer mp) {
+          preparedTone = preparingTone;
+          preparingTone = null;
+          if (startWhenPrepared != null) {
+            Runnable started = startWhenPrepared;
+            startWhenPrepared = null;
+            start(started);
+          }
+        }
+      });
+      mediaPlayer.setOnErrorListener(new MediaPlayer.OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer mp, int what, int extra) {
+          // The sound check falls back to the ringtone if nothing plays.
+          preparedTone = null;
+          preparingTone = null;
+          startWhenPrepared = null;
+          return false;
+        }
+      });
     }
 
     // Force the alarm stream to be maximum volume.  This will allow the user
@@ -81,7 +136,11 @@ public class NotificationService extends Service {
     }
 
     private void setVolume(float volume) {
+      this.volume = volume;
       mediaPlayer.setVolume(volume, volume);
+      if (pcmPlayer != null) {
+        pcmPlayer.setVolume(volume);
+      }
     }
 
     private void resetVolume(Context c) {
@@ -93,8 +152,15 @@ public class NotificationService extends Service {
 
     private void useContext(Context c) {
       // The media player can fail for lots of reasons.  Try to setup a backup
-      // sound for use when the media player fails.
-      fallbackSound = RingtoneManager.getRingtone(c, AlarmUtil.getDefaultAlarmUri());
+      // sound for use when the media player fails, preferably one which
+      // ToneVerifier has already found to work.
+      Uri verified = ToneVerifier.fallbackTone(c);
+      if (verified != null) {
+        fallbackSound = RingtoneManager.getRingtone(c, verified);
+      }
+      if (fallbackSound == null) {
+        fallbackSound = RingtoneManager.getRingtone(c, AlarmUtil.getDefaultAlarmUri());
+      }
       if (fallbackSound == null) {
         Uri superFallback = RingtoneManager.getValidRingtoneUri(c);
         fallbackSound = RingtoneManager.getRingtone(c, superFallback);
@@ -116,7 +182,16 @@ public class NotificationService extends Service {
     }
 
     private void ensureSound() {
-      if (!mediaPlayer.isPlaying() &&
+      // A tone which is about to start doesn't need the fallback, unless it
+      // has been about to start for too long.
+      if (startWhenPrepared != null && SystemClock.uptimeMillis()
+          - startWhenPreparedSince >= PREPARE_DEADLINE_MILLIS) {
+        startWhenPrepared = null;
+        mediaPlayer.reset();
+        preparingTone = null;
+      }
+      boolean pcmPlaying = pcmPlayer != null && pcmPlayer.isPlaying();
+      if (startWhenPrepared == null && !pcmPlaying && !mediaPlayer.isPlaying() &&
           fallbackSound != null && !fallbackSound.isPlaying()) {
         fallbackSound.play();
       }
@@ -128,20 +203,125 @@ public class NotificationService extends Service {
       }
     }
 
-    public void play(Context c, Uri tone) {
+    /**
+     * Loads and prepares the tone in the background so that play() only has
+     * to start it.  Must be called on the main thread.
+     */
+    public void prewarm(Context c, Uri tone) {
+      if (AppSettings.usePcmTones(c)) {
+        ToneCache.prepare(c, tone);
+      }
+      nextTone = tone;
+      if (held) {
+        return;
+      }
+      if (tone == null || tone.equals(preparedTone)
+          || tone.equals(preparingTone)) {
+        return;
+      }
+      mediaPlayer.reset();
+      preparedTone = null;
+      preparingTone = tone;
+      mediaPlayer.setLooping(true);
+      try {
+        mediaPlayer.setDataSource(c, tone);
+        mediaPlayer.prepareAsync();
+      } catch (Exception e) {
+        e.printStackTrace();
+        mediaPlayer.reset();
+        preparingTone = null;
+      }
+    }
+
+    /**
+     * Lets go of a tone loaded by prewarm() which is no longer needed.
+     */
+    public void releasePrepared() {
+      nextTone = null;
+      if (held || (preparedTone == null && preparingTone == null)) {
+        return;
+      }
+      mediaPlayer.reset();
+      preparedTone = null;
+      preparingTone = null;
+    }
+
+    private void hold() {
+      held = true;
+    }
+
+    private void releaseHold(Context c) {
+      held = false;
+      if (nextTone != null) {
+        prewarm(c, nextTone);
+      } else {
+        // Nothing to get ready for, so don't keep the last tone loaded.
+        mediaPlayer.reset();
+      }
+    }
+
+    /**
+     * @param started Run as soon as the player has started.
+     */
+    public void play(Context c, Uri tone, Runnable started) {
+      if (AppSettings.usePcmTones(c)) {
+        File decoded = ToneCache.get(tone);
+        if (decoded != null) {
+          try {
+            pcmPlayer = PcmTonePlayer.open(decoded);
+            pcmPlayer.setVolume(volume);
+            pcmPlayer.start();
+            started.run();
+            return;
+          } catch (IOException e) {
+            e.printStackTrace();
+            pcmPlayer = null;
+          }
+        }
+      }
+      if (tone != null && tone.equals(preparedTone)) {
+        start(started);
+        return;
+      }
+      if (tone != null && tone.equals(preparingTone)) {
+        startWhenPrepared = started;
+        startWhenPreparedSince = SystemClock.uptimeMillis();
+        return;
+      }
+      // Not prepared ahead of time, so do it now.
+      preparedTone = null;
+      preparingTone = null;
       mediaPlayer.reset();
       mediaPlayer.setLooping(true);
       try {
         mediaPlayer.setDataSource(c, tone);
         mediaPlayer.prepare();
-        mediaPlayer.start();
+        start(started);
       } catch (Exception e) {
         e.printStackTrace();
       }
     }
 
+    private void start(Runnable started) {
+      preparedTone = null;
+      mediaPlayer.start();
+      started.run();
+    }
+
     public void stop() {
-      mediaPlayer.stop();
+      if (pcmPlayer != null) {
+        pcmPlayer.stop();
+        pcmPlayer = null;
+      }
+      startWhenPrepared = null;
+      if (preparingTone != null) {
+        // stop() is not allowed while preparing.
+        mediaPlayer.reset();
+        preparingTone = null;
+      } else {
+        mediaPlayer.stop();
+      }
+      preparedTone = null;
       if (vibrator != null) {
         vibrator.cancel();
       }
@@ -159,14 +339,27 @@ public class NotificationService extends Service {
   private LinkedList<Long> firingAlarms;
   private AlarmClockServiceBinder service;
   private DbAccessor db;
+  // The alarm whose sound is currently playing, if any.
+  private long soundingAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
   // Notification tools
   private NotificationManager manager;
   private PendingIntent notificationActivity;
   private Handler handler;
-  private VolumeIncreaser volumeIncreaseCallback;
-  private Runnable soundCheck;
-  private Runnable notificationBlinker;
+  private VolumeRamp volumeRamp;
+  private boolean volumeRampFinished;
+  // The wall clock second of the last firing tick.
+  private long tickSecond;
+  private Runnable firingTicker;
   private Runnable autoCancel;
+  // The title of the firing notification, read once per firing alarm, and
+  // the title last posted, so that the notification is only posted again
+  // when it changes.
+  private String firingTitle;
+  private String postedTitle;
+  // When ReceiverAlarm received the first alarm of this firing session, or
+  // 0 once the latency to its sound has been measured.
+  private long receivedAt;
+  private long lastStartLatencyMillis = -1;
 
   @Override
   public IBinder onBind(Intent intent) {
@@ -180,7 +373,7 @@ public class NotificationService extends Service {
     // Access to in-memory and persistent data structures.
     service = new AlarmClockServiceBinder(getApplicationContext());
     service.bind();
-    db = new DbAccessor(getApplicationContext());
+    db = DbAccessor.acquire(getApplicationContext());
 
     // Setup audio.
     MediaSingleton.INSTANCE.useContext(getApplicationContext());
@@ -192,50 +385,41 @@ public class NotificationService extends Service {
     Intent intent = new Intent(getApplicationContext(), ActivityAlarmNotification.class);
     notificationActivity = PendingIntent.getActivity(getApplicationContext(), 0, intent, 0);
 
-    // Setup a self-scheduling event loops.
+    // Setup a self-scheduling event loop.  While an alarm is firing, it
+    // ramps the volume every VolumeRamp.STEP_MILLIS until the ramp is done,
+    // and once every second it makes sure some sound is playing and keeps
+    // the notification up.
     handler = new Handler();
-    volumeIncreaseCallback = new VolumeIncreaser();
-    soundCheck = new Runnable() {
+    volumeRamp = new VolumeRamp(new VolumeRamp.Clock() {
       @Override
-      public void run() {
-        // Some sound should always be playing.
-        MediaSingleton.INSTANCE.ensureSound();
-
-        long next = AlarmUtil.millisTillNextInterval(AlarmUtil.Interval.SECOND);
-        handler.postDelayed(soundCheck, next);
+      public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
       }
-    };
-    notificationBlinker = new Runnable() {
+    });
+    firingTicker = new Runnable() {
       @Override
       public void run() {
-        String notifyText;
-        try {
-          AlarmInfo info = db.readAlarmInfo(currentAlarmId());
-          notifyText = (info == null || info.getName() == null) ? "" : info.getName();
-          if (notifyText.equals("") && info != null) {
-            notifyText = info.getTime().localizedString(getApplicationContext());
-          }
-        } catch (NoAlarmsException e) {
-          return;
+        if (!volumeRampFinished) {
+          // Checked first, so that the last volume set is the end volume.
+          volumeRampFinished = volumeRamp.isFinished();
+          MediaSingleton.INSTANCE.setVolume(volumeRamp.volume());
         }
 
-          NotificationCompat.Builder builder = new NotificationCompat.Builder(
-                  getApplicationContext());
+        long second = System.currentTimeMillis() / 1000;
+        if (second != tickSecond) {
+          tickSecond = second;
 
-          Notification notification = builder
-                  .setContentIntent(notificationActivity)
-                  .setSmallIcon(R.drawable.ic_stat_notify_alarm)
-                  .setContentTitle(notifyText)
-                  .setContentText("")
-                  .setColor(ContextCompat.getColor(getApplicationContext(),
-                          R.color.notification_color))
-                  .build();
-          notification.flags |= Notification.FLAG_ONGOING_EVENT;
+          // Some sound should always be playing.
+          MediaSingleton.INSTANCE.ensureSound();
 
-        manager.notify(AlarmClockService.NOTIFICATION_BAR_ID, notification);
+          postFiringNotification();
+        }
 
         long next = AlarmUtil.millisTillNextInterval(AlarmUtil.Interval.SECOND);
-        handler.postDelayed(notificationBlinker, next);
+        if (!volumeRampFinished) {
+          next = Math.min(next, VolumeRamp.STEP_MILLIS);
+        }
+        handler.postDelayed(firingTicker, next);
       }
     };
     autoCancel = new Runnable() {
@@ -257,8 +441,9 @@ public class NotificationService extends Service {
   @Override
   public void onDestroy() {
     super.onDestroy();
-    db.closeConnections();
+    db.release();
     service.unbind();
+    MediaSingleton.INSTANCE.releaseHold(getApplicationContext());
 
     boolean debug = AppSettings.isDebugMode(getApplicationContext());
     if (debug && firingAlarms.size() != 0) {
@@ -298,6 +483,9 @@ public class NotificationService extends Service {
       }
 
       if (firstAlarm) {
+        // Keep the next alarm's tone from being prepared over this one.
+        MediaSingleton.INSTANCE.hold();
+        receivedAt = intent.getLongExtra(EXTRA_RECEIVED_AT, 0);
         soundAlarm(alarmId);
       }
     }
@@ -310,12 +498,20 @@ public class NotificationService extends Service {
     return firingAlarms.getFirst();
   }
 
+  /**
+   * @return Milliseconds from ReceiverAlarm going off to the alarm sound
+   *     starting, for the last firing session, or -1 if unknown.
+   */
+  public long lastStartLatencyMillis() {
+    return lastStartLatencyMillis;
+  }
+
   public int firingAlarmCount() {
     return firingAlarms.size();
   }
 
   public float volume() {
-    return volumeIncreaseCallback.volume();
+    return volumeRamp.volume();
   }
 
   public void acknowledgeCurrentNotification(int snoozeMinutes) throws NoAlarmsException {
@@ -333,9 +529,10 @@ public class NotificationService extends Service {
     // If this was the only alarm firing, stop the service.  Otherwise,
     // start the next alarm in the stack.
     if (firingAlarms.size() == 0) {
+      MediaSingleton.INSTANCE.releaseHold(getApplicationContext());
       stopSelf();
     } else {
-      soundAlarm(alarmId);
+      soundAlarm(firingAlarms.getFirst());
     }
     try {
       WakeLock.release(alarmId);
@@ -347,68 +544,114 @@ public class NotificationService extends Service {
   }
 
   private void soundAlarm(long alarmId) {
-    // Begin notifying based on settings for this alaram.
-    AlarmSettings settings = db.readAlarmSettings(alarmId);
+    // Begin notifying based on settings for this alarm.  They are read right
+    // here rather than queued behind other reads, so that nothing else can
+    // delay the sound; they are almost always in the AlarmCache anyway.
+    AlarmInfo info = db.readAlarmInfo(alarmId);
+    String title = (info == null || info.getName() == null) ? "" : info.getName();
+    if (title.equals("") && info != null) {
+      title = info.getTime().localizedString(getApplicationContext());
+    }
+    startNotifying(alarmId, db.readAlarmSettings(alarmId), title);
+  }
+
+  private void postFiringNotification() {
+    if (firingTitle.equals(postedTitle)) {
+      return;
+    }
+
+      NotificationCompat.Builder builder = new NotificationCompat.Builder(
+              getApplicationContext());
+
+      Notification notification = builder
+              .setContentIntent(notificationActivity)
+              .setSmallIcon(R.drawable.ic_stat_notify_alarm)
+              .setContentTitle(firingTitle)
+              .setContentText("")
+              .setColor(ContextCompat.getColor(getApplicationContext(),
+                      R.color.notification_color))
+              .build();
+      notification.flags |= Notification.FLAG_ONGOING_EVENT;
+
+    manager.notify(FIRING_NOTIFICATION_ID, notification);
+    postedTitle = firingTitle;
+  }
+
+  private void startNotifying(long alarmId, AlarmSettings settings,
+      String title) {
+    soundingAlarmId = alarmId;
+    firingTitle = title;
     if (settings.getVibrate()) {
       MediaSingleton.INSTANCE.vibrate();
     }
 
-    volumeIncreaseCallback.reset(settings);
+    volumeRamp.start(settings.getVolumeStartPercent() / 100f,
+        settings.getVolumeEndPercent() / 100f,
+        settings.getVolumeChangeTimeSec() * 1000L,
+        AppSettings.volumeRampCurve(getApplicationContext()));
+    volumeRampFinished = false;
+    tickSecond = 0;
     MediaSingleton.INSTANCE.normalizeVolume(
-        getApplicationContext(), volumeIncreaseCallback.volume());
-    MediaSingleton.INSTANCE.play(getApplicationContext(), settings.getTone());
+        getApplicationContext(), volumeRamp.volume());
+    // A tone which was found to be broken is not tried at all.
+    Uri tone = ToneVerifier.playableTone(getApplicationContext(),
+        settings.getTone());
+    MediaSingleton.INSTANCE.play(getApplicationContext(), tone,
+        new Runnable() {
+          @Override
+          public void run() {
+            onSoundStarted();
+          }
+        });
 
     // Start periodic events for handling this notification.
-    handler.post(volumeIncreaseCallback);
-    handler.post(soundCheck);
-    handler.post(notificationBlinker);
+    handler.post(firingTicker);
     // Set up a canceler if this notification isn't acknowledged by the timeout.
     int timeoutMillis = 60 * 1000 * AppSettings.alarmTimeOutMins(getApplicationContext());
     handler.postDelayed(autoCancel, timeoutMillis);
   }
 
-  private void stopNotifying() {
-    // Stop periodic events.
-    handler.removeCallbacks(volumeIncreaseCallback);
-    handler.removeCallbacks(soundCheck);
-    handler.removeCallbacks(notificationBlinker);
-    handler.removeCallbacks(autoCancel);
+  private void onSoundStarted() {
+    if (receivedAt == 0) {
+      return;
+    }
+    lastStartLatencyMillis = SystemClock.elapsedRealtime() - receivedAt;
+    receivedAt = 0;
+    if (AppSettings.isDebugMode(getApplicationContext())) {
+      Toast.makeText(getApplicationContext(), "ALARM SOUND STARTED "
+          + lastStartLatencyMillis + "ms AFTER RECEIVER", Toast.LENGTH_SHORT).show();
+    }
+  }
 
-    // Stop notifying.
-    MediaSingleton.INSTANCE.stop();
-    MediaSingleton.INSTANCE.resetVolume(getApplicationContext());
+  /**
+   * Prepares the tone of the next alarm so that it can start playing as soon
+   * as that alarm fires.  Must be called on the main thread.
+   */
+  public static void prepareTone(Context context, Uri tone) {
+    MediaSingleton.INSTANCE.prewarm(context.getApplicationContext(), tone);
   }
 
   /**
-   * Helper class for gradually increasing the volume of the alarm audio
-   * stream.
+   * Releases the tone prepared by prepareTone(), when there is no next alarm.
+   * Must be called on the main thread.
    */
-  private final class VolumeIncreaser implements Runnable {
-    float start;
-    float end;
-    float increment;
+  public static void releaseTone() {
+    MediaSingleton.INSTANCE.releasePrepared();
+  }
 
-    public float volume() {
-      return start;
-    }
+  private void stopNotifying() {
+    soundingAlarmId = AlarmClockServiceBinder.NO_ALARM_ID;
 
-    public void reset(AlarmSettings settings) {
-      start = (float) (settings.getVolumeStartPercent() / 100.0);
-      end = (float) (settings.getVolumeEndPercent() / 100.0);
-      increment = (end - start) / (float) settings.getVolumeChangeTimeSec();
-    }
+    // Stop periodic events.
+    handler.removeCallbacks(firingTicker);
+    handler.removeCallbacks(autoCancel);
 
-    @Override
-    public void run() {
-      start += increment;
-      if (start > end) {
-        start = end;
-      }
-      MediaSingleton.INSTANCE.setVolume(start);
+    manager.cancel(FIRING_NOTIFICATION_ID);
+    firingTitle = null;
+    postedTitle = null;
 
-      if (Math.abs(start - end) > (float) 0.0001) {
-        handler.postDelayed(volumeIncreaseCallback, 1000);
-      }
-    }
+    // Stop notifying.
+    MediaSingleton.INSTANCE.stop();
+    MediaSingleton.INSTANCE.resetVolume(getApplicationContext());
   }
 }
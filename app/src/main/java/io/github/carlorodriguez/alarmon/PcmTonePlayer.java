@@ -0,0 +1,126 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+
+/**
+ * Plays a tone decoded by ToneCache on the alarm stream, over and over.  The
+ * file is memory-mapped and fed to a streaming AudioTrack from a thread of
+ * its own, so the loop has no gap and no decoder is involved.
+ */
+public final class PcmTonePlayer {
+  private static final int CHUNK_BYTES = 16 * 1024;
+
+  private final AudioTrack track;
+  private final MappedByteBuffer pcm;
+  private Thread writer;
+  private volatile boolean playing;
+
+  private PcmTonePlayer(int sampleRate, int channels, MappedByteBuffer pcm)
+      throws IOException {
+    int channelConfig = channels == 1
+        ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+    int bufferBytes = AudioTrack.getMinBufferSize(sampleRate, channelConfig,
+        AudioFormat.ENCODING_PCM_16BIT);
+    if (bufferBytes <= 0) {
+      throw new IOException("Unsupported tone format.");
+    }
+    this.track = new AudioTrack(AudioManager.STREAM_ALARM, sampleRate,
+        channelConfig, AudioFormat.ENCODING_PCM_16BIT,
+        Math.max(bufferBytes * 2, CHUNK_BYTES), AudioTrack.MODE_STREAM);
+    if (track.getState() != AudioTrack.STATE_INITIALIZED) {
+      track.release();
+      throw new IOException("Unable to create an AudioTrack.");
+    }
+    this.pcm = pcm;
+  }
+
+  public static PcmTonePlayer open(File file) throws IOException {
+    RandomAccessFile in = new RandomAccessFile(file, "r");
+    try {
+      int sampleRate = in.readInt();
+      int channels = in.readInt();
+      // The mapping stays valid after the file is closed.
+      MappedByteBuffer pcm = in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+          ToneCache.HEADER_BYTES, in.length() - ToneCache.HEADER_BYTES);
+      return new PcmTonePlayer(sampleRate, channels, pcm);
+    } finally {
+      in.close();
+    }
+  }
+
+  public void start() {
+    playing = true;
+    track.play();
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        while (playing) {
+          if (!pcm.hasRemaining()) {
+            pcm.rewind();
+          }
+          int length = Math.min(chunk.length, pcm.remaining());
+          pcm.get(chunk, 0, length);
+          int offset = 0;
+          while (playing && offset < length) {
+            int count = track.write(chunk, offset, length - offset);
+            if (count < 0) {
+              playing = false;
+              break;
+            }
+            offset += count;
+          }
+        }
+      }
+    }, "PcmTonePlayer");
+    writer.start();
+  }
+
+  @SuppressWarnings("deprecation")
+  public void setVolume(float volume) {
+    track.setStereoVolume(volume, volume);
+  }
+
+  public boolean isPlaying() {
+    return playing && track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+  }
+
+  public void stop() {
+    playing = false;
+    // Pausing unblocks a write in progress.
+    track.pause();
+    track.flush();
+    if (writer != null) {
+      try {
+        writer.join(1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    track.stop();
+    track.release();
+  }
+}
@@ -15,155 +15,365 @@
 
 package io.github.carlorodriguez.alarmon;
 
-import java.util.TreeMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TimeZone;
 
 import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Build;
 
 /**
  * This container holds a list of all currently scheduled alarms.
- * Adding/removing alarms to this container schedules/unschedules PendingIntents
- * with the android AlarmManager service.
+ * Only the earliest alarm that has not been delivered yet is registered
+ * with the android AlarmManager service.  When it fires, the
+ * AlarmClockService calls deliverDue() to collect every alarm due in the
+ * same window, which in turn arms the next one.  This keeps the number of
+ * system alarm registrations constant no matter how many alarms exist.
+ *
+ * The wakeup carries the time it was armed for in EXTRA_DUE_MILLIS, since
+ * the process may have died in the meantime.  A service restarted by the
+ * wakeup schedules every alarm for its first occurrence after now, which
+ * for the other alarms of the window is already a day or a week later.
+ *
+ * The armed alarm id is also kept in a preferences file, so that a new
+ * process can cancel the registration left by the one before it.
  */
 public final class PendingAlarmList {
-  // Maps alarmId -> alarm.
-  private TreeMap<Long, PendingAlarm> pendingAlarms;
-  // Maps alarm time -> alarmId.
-  private TreeMap<AlarmTime, Long> alarmTimes;
+  // Alarms due within this many millis of a wakeup are delivered with it.
+  public static final long FIRING_WINDOW_MILLIS =
+      AlarmUtil.Interval.SECOND.millis();
+  // The epoch-millis the registered wakeup was armed for.
+  public static final String EXTRA_DUE_MILLIS = "due_millis";
+
+  private static final String PREFERENCES = "pending_alarm_list";
+  private static final String ARMED_ALARM_ID = "armed_alarm_id";
+
+  // Alarms waiting to fire, ordered by the epoch-millis at which they are
+  // due.  The head of this queue is the one registered with the AlarmManager.
+  private AlarmQueue<AlarmTime> pendingAlarms;
+  // Alarms which have fired but have not been acknowledged yet.
+  private AlarmQueue<AlarmTime> deliveredAlarms;
   private AlarmManager alarmManager;
   private Context context;
 
+  private SharedPreferences preferences;
+
+  private long armedAlarmId;
+  private long armedTime;
+
+  // Alarms scheduled or removed before restore() has run.  What happened to
+  // them is newer than what restore() is given.  Null after restore().
+  private HashSet<Long> touchedBeforeRestore;
+
   public PendingAlarmList(Context context) {
-    pendingAlarms = new TreeMap<>();
-    alarmTimes = new TreeMap<>();
+    pendingAlarms = new AlarmQueue<>();
+    deliveredAlarms = new AlarmQueue<>();
     alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
     this.context = context;
+    preferences = context.getSharedPreferences(PREFERENCES,
+        Context.MODE_PRIVATE);
+    // Whatever the previous process left armed; its time is unknown, so the
+    // first rearm() always replaces it.
+    armedAlarmId = preferences.getLong(ARMED_ALARM_ID,
+        AlarmClockServiceBinder.NO_ALARM_ID);
+    armedTime = -1;
+    touchedBeforeRestore = new HashSet<>();
   }
 
-  public int size() {
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
+  /**
+   * Schedules the enabled alarms read from the database when the service
+   * starts, except for those which have been scheduled or removed since.
+   * Touches the AlarmManager at most once.
+   * @return The ids of the alarms which were scheduled.
+   */
+  public long[] restore(long[] alarmIds, AlarmTime[] times) {
+    int count = 0;
+    long[] restored = new long[alarmIds.length];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      if (!touchedBeforeRestore.contains(alarmIds[i])) {
+        pendingAlarms.put(alarmIds[i], times[i].millis(), times[i]);
+        restored[count++] = alarmIds[i];
+      }
     }
-    return pendingAlarms.size();
+    touchedBeforeRestore = null;
+    rearm();
+    return Arrays.copyOf(restored, count);
+  }
+
+  public int size() {
+    return pendingAlarms.size() + deliveredAlarms.size();
   }
 
   public void put(long alarmId, AlarmTime time) {
-    // Remove this alarm if it exists already.
-    remove(alarmId);
+    putWithoutArming(alarmId, time);
+    rearm();
+  }
 
-    // Intents are considered equal if they have the same action, data, type,
-    // class, and categories.  In order to schedule multiple alarms, every
-    // pending intent must be different.  This means that we must encode
-    // the alarm id in the data section of the intent rather than in
-    // the extras bundle.
-    Intent notifyIntent = new Intent(context, ReceiverAlarm.class);
-    notifyIntent.setData(AlarmUtil.alarmIdToUri(alarmId));
-    PendingIntent scheduleIntent =
-      PendingIntent.getBroadcast(context, 0, notifyIntent, 0);
+  /**
+   * Schedules several alarms, touching the AlarmManager at most once.
+   */
+  public void putAll(long[] alarmIds, AlarmTime[] times) {
+    for (int i = 0; i < alarmIds.length; ++i) {
+      putWithoutArming(alarmIds[i], times[i]);
+    }
+    rearm();
+  }
 
-    // Schedule the alarm with the AlarmManager.
-    // Previous instances of this intent will be overwritten in
-    // the alarm manager.
+  public boolean remove(long alarmId) {
+    boolean removed = removeWithoutArming(alarmId);
+    if (removed) {
+      rearm();
+    }
+    return removed;
+  }
 
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-          Intent intent = new Intent(context, ActivityAlarmClock.class);
+  /**
+   * Removes several alarms, touching the AlarmManager at most once.
+   * @return The number of alarms which were scheduled.
+   */
+  public int removeAll(long[] alarmIds) {
+    int removed = 0;
+    for (long alarmId : alarmIds) {
+      if (removeWithoutArming(alarmId)) {
+        removed++;
+      }
+    }
+    if (removed > 0) {
+      rearm();
+    }
+    return removed;
+  }
 
-          PendingIntent showIntent = PendingIntent.getActivity(context, 0,
-                  intent, PendingIntent.FLAG_UPDATE_CURRENT);
+  private void putWithoutArming(long alarmId, AlarmTime time) {
+    if (touchedBeforeRestore != null) {
+      touchedBeforeRestore.add(alarmId);
+    }
+    // Remove this alarm if it exists already.
+    deliveredAlarms.remove(alarmId);
+    pendingAlarms.put(alarmId, time.millis(), time);
+  }
 
-          AlarmManager.AlarmClockInfo alarmClockInfo = new AlarmManager.
-                  AlarmClockInfo(time.calendar().getTimeInMillis(),
-                  showIntent
-                  );
+  private boolean removeWithoutArming(long alarmId) {
+    if (touchedBeforeRestore != null) {
+      touchedBeforeRestore.add(alarmId);
+    }
+    boolean removed = pendingAlarms.remove(alarmId) != null;
+    removed |= deliveredAlarms.remove(alarmId) != null;
+    return removed;
+  }
 
-          alarmManager.setAlarmClock(alarmClockInfo, scheduleIntent);
-      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
-          alarmManager.setExact(AlarmManager.RTC_WAKEUP,
-                  time.calendar().getTimeInMillis(), scheduleIntent);
-      } else {
-          alarmManager.set(AlarmManager.RTC_WAKEUP,
-                  time.calendar().getTimeInMillis(), scheduleIntent);
-      }
+  /**
+   * Marks the alarm which just fired, along with every other alarm due in
+   * the same window, as delivered and arms the next pending alarm.
+   * @param firedAlarmId The alarm id carried by the wakeup intent.
+   * @param firedTime The epoch-millis the wakeup was armed for.
+   * @param now The current epoch-millis.
+   * @return The ids of all alarms delivered by this call.
+   */
+  public long[] deliverDue(long firedAlarmId, long firedTime, long now) {
+    int count = 0;
+    long[] due = new long[pendingAlarms.size() + 1];
 
-    // Keep track of all scheduled alarms.
-    pendingAlarms.put(alarmId, new PendingAlarm(time, scheduleIntent));
-    alarmTimes.put(time, alarmId);
+    // A process which armed this wakeup still has the fired alarm at the
+    // time it was armed for.  One started by it has rescheduled everything
+    // from now.
+    boolean restarted = pendingAlarms.timeOf(firedAlarmId) != firedTime;
 
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
+    AlarmTime fired = pendingAlarms.remove(firedAlarmId);
+    if (fired != null) {
+      deliveredAlarms.put(firedAlarmId, fired.millis(), fired);
+      due[count++] = firedAlarmId;
+    }
+    for (long alarmId : dueAlarms(pendingAlarms, firedTime, now, restarted,
+        TimeZone.getDefault())) {
+      long time = pendingAlarms.timeOf(alarmId);
+      deliveredAlarms.put(alarmId, time, pendingAlarms.remove(alarmId));
+      due[count++] = alarmId;
     }
+
+    rearm();
+    return Arrays.copyOf(due, count);
   }
 
-  public boolean remove(long alarmId) {
-    PendingAlarm alarm = pendingAlarms.remove(alarmId);
-    if (alarm == null) {
-      return false;
+  /**
+   * @return The ids of the alarms in pending which are due for a wakeup
+   *     armed for firedTime and received at now: those scheduled no later
+   *     than FIRING_WINDOW_MILLIS from now and, only if the process was
+   *     restarted by the wakeup, those with an occurrence between
+   *     FIRING_WINDOW_MILLIS before firedTime and now, which the restart
+   *     moved on to a later occurrence.
+   */
+  static long[] dueAlarms(AlarmQueue<AlarmTime> pending, long firedTime,
+      long now, boolean restarted, TimeZone zone) {
+    long windowEnd = now + FIRING_WINDOW_MILLIS;
+    int count = 0;
+    long[] due = new long[pending.size()];
+    for (int i = 0; i < pending.size(); ++i) {
+      if (pending.timeAt(i) <= windowEnd) {
+        due[count++] = pending.idAt(i);
+      }
     }
-    Long expectedAlarmId = alarmTimes.remove(alarm.time());
-    alarmManager.cancel(alarm.pendingIntent());
-    alarm.pendingIntent().cancel();
-
-    if (expectedAlarmId != alarmId) {
-      throw new IllegalStateException("Internal inconsistency in PendingAlarmList");
+    if (!restarted) {
+      return Arrays.copyOf(due, count);
     }
 
-    if (pendingAlarms.size() != alarmTimes.size()) {
-      throw new IllegalStateException("Inconsistent pending alarms: "
-          + pendingAlarms.size() + " vs " + alarmTimes.size());
+    // Only a restart reschedules alarms past their occurrence in the
+    // window, and it happens once per process, so the occurrences are only
+    // worked out here.
+    long windowStart = Math.min(firedTime, now) - FIRING_WINDOW_MILLIS;
+    for (int i = 0; i < pending.size(); ++i) {
+      AlarmTime time = pending.valueAt(i);
+      if (pending.timeAt(i) > windowEnd
+          && NextOccurrence.after(windowStart, time.secondsAfterMidnight(),
+              time.getDaysOfWeek().mask(), zone) <= now) {
+        due[count++] = pending.idAt(i);
+      }
     }
-
-    return true;
+    return Arrays.copyOf(due, count);
   }
 
   public AlarmTime nextAlarmTime() {
-    if (alarmTimes.size() == 0) {
+    if (pendingAlarms.size() == 0) {
       return null;
     }
-    return alarmTimes.firstKey();
+    return pendingAlarms.peek();
   }
 
     public long nextAlarmId() {
-        if (alarmTimes.size() == 0) {
+        if (pendingAlarms.size() == 0) {
             return AlarmClockServiceBinder.NO_ALARM_ID;
         }
-        return alarmTimes.get(alarmTimes.firstKey());
+        return pendingAlarms.peekId();
     }
 
   public AlarmTime pendingTime(long alarmId) {
-    PendingAlarm alarm = pendingAlarms.get(alarmId);
-    return alarm == null ? null : alarm.time();
+    AlarmTime time = pendingAlarms.get(alarmId);
+    return time != null ? time : deliveredAlarms.get(alarmId);
   }
 
   public AlarmTime[] pendingTimes() {
-    AlarmTime[] times = new AlarmTime[alarmTimes.size()];
-    alarmTimes.keySet().toArray(times);
+    AlarmTime[] times = new AlarmTime[size()];
+    int pending = pendingAlarms.size();
+    for (int i = 0; i < pending; ++i) {
+      times[i] = pendingAlarms.valueAt(i);
+    }
+    for (int i = 0; i < deliveredAlarms.size(); ++i) {
+      times[pending + i] = deliveredAlarms.valueAt(i);
+    }
+    Arrays.sort(times);
     return times;
   }
 
+  /**
+   * @return Every scheduled alarm as (alarm id, epoch-millis) pairs packed
+   *     into one array and sorted by alarm id, so that a single alarm can be
+   *     found with a binary search over the even indices.
+   */
+  public long[] pendingMillis() {
+    long[] alarmIds = new long[size()];
+    int pending = pendingAlarms.size();
+    for (int i = 0; i < pending; ++i) {
+      alarmIds[i] = pendingAlarms.idAt(i);
+    }
+    for (int i = 0; i < deliveredAlarms.size(); ++i) {
+      alarmIds[pending + i] = deliveredAlarms.idAt(i);
+    }
+    Arrays.sort(alarmIds);
+
+    long[] pairs = new long[alarmIds.length * 2];
+    for (int i = 0; i < alarmIds.length; ++i) {
+      long time = pendingAlarms.timeOf(alarmIds[i]);
+      pairs[2 * i] = alarmIds[i];
+      pairs[2 * i + 1] = time >= 0 ? time : deliveredAlarms.timeOf(alarmIds[i]);
+    }
+    return pairs;
+  }
+
   public Long[] pendingAlarms() {
-    Long[] alarmIds = new Long[pendingAlarms.size()];
-    pendingAlarms.keySet().toArray(alarmIds);
+    Long[] alarmIds = new Long[size()];
+    int pending = pendingAlarms.size();
+    for (int i = 0; i < pending; ++i) {
+      alarmIds[i] = pendingAlarms.idAt(i);
+    }
+    for (int i = 0; i < deliveredAlarms.size(); ++i) {
+      alarmIds[pending + i] = deliveredAlarms.idAt(i);
+    }
     return alarmIds;
   }
 
-  private class PendingAlarm {
-    private AlarmTime time;
-    private PendingIntent pendingIntent;
+  // Makes sure that the AlarmManager holds exactly one registration: the
+  // head of the pending queue.  Nothing is sent to the system unless the
+  // head actually changed.
+  private void rearm() {
+    if (pendingAlarms.size() == 0) {
+      disarm();
+      return;
+    }
 
-    PendingAlarm(AlarmTime time, PendingIntent pendingIntent) {
-      this.time = time;
-      this.pendingIntent = pendingIntent;
+    long alarmId = pendingAlarms.peekId();
+    long time = pendingAlarms.peekTime();
+    if (armedAlarmId == alarmId && armedTime == time) {
+      return;
     }
-    public AlarmTime time() {
-      return time;
+    disarm();
+
+    PendingIntent scheduleIntent = wakeupIntent(alarmId, time);
+
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+          Intent intent = new Intent(context, ActivityAlarmClock.class);
+
+          PendingIntent showIntent = PendingIntent.getActivity(context, 0,
+                  intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+          AlarmManager.AlarmClockInfo alarmClockInfo = new AlarmManager.
+                  AlarmClockInfo(time, showIntent);
+
+          alarmManager.setAlarmClock(alarmClockInfo, scheduleIntent);
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+          alarmManager.setExact(AlarmManager.RTC_WAKEUP, time, scheduleIntent);
+      } else {
+          alarmManager.set(AlarmManager.RTC_WAKEUP, time, scheduleIntent);
+      }
+
+    setArmed(alarmId, time);
+  }
+
+  private void disarm() {
+    if (armedAlarmId == AlarmClockServiceBinder.NO_ALARM_ID) {
+      return;
     }
-    public PendingIntent pendingIntent() {
-      return pendingIntent;
+    // The AlarmManager matches registrations on the intent alone, so one
+    // rebuilt from the armed id cancels it even if it was made by an earlier
+    // process.
+    PendingIntent armedIntent = wakeupIntent(armedAlarmId, armedTime);
+    alarmManager.cancel(armedIntent);
+    armedIntent.cancel();
+    setArmed(AlarmClockServiceBinder.NO_ALARM_ID, -1);
+  }
+
+  private PendingIntent wakeupIntent(long alarmId, long time) {
+    // The alarm id is encoded in the data section of the intent rather than
+    // in the extras bundle so that the ReceiverAlarm can tell which alarm
+    // woke it up, and so that the intent for a new head is never mistaken
+    // for the one it replaces.
+    Intent notifyIntent = new Intent(context, ReceiverAlarm.class);
+    notifyIntent.setData(AlarmUtil.alarmIdToUri(alarmId));
+    notifyIntent.putExtra(EXTRA_DUE_MILLIS, time);
+    // A registration left by a previous process may exist for this alarm
+    // with a different time, so the extra has to be replaced.
+    return PendingIntent.getBroadcast(context, 0, notifyIntent,
+        PendingIntent.FLAG_UPDATE_CURRENT);
+  }
+
+  private void setArmed(long alarmId, long time) {
+    if (alarmId != armedAlarmId) {
+      preferences.edit().putLong(ARMED_ALARM_ID, alarmId).apply();
     }
+    armedAlarmId = alarmId;
+    armedTime = time;
   }
 }
@@ -4,6 +4,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.SystemClock;
 
 
 public class ReceiverAlarm extends BroadcastReceiver {
@@ -22,7 +23,22 @@ public class ReceiverAlarm extends BroadcastReceiver {
 
     Intent notifyService = new Intent(context, NotificationService.class);
     notifyService.setData(alarmUri);
+    notifyService.putExtra(NotificationService.EXTRA_RECEIVED_AT,
+        SystemClock.elapsedRealtime());
 
     context.startService(notifyService);
+
+    // Only the earliest alarm is registered with the AlarmManager.  Let the
+    // AlarmClockService deliver anything else due in the same window and
+    // arm the next one.
+    Intent deliverDue = new Intent(context, AlarmClockService.class);
+    deliverDue.setData(alarmUri);
+    deliverDue.putExtra(PendingAlarmList.EXTRA_DUE_MILLIS,
+        recvIntent.getLongExtra(PendingAlarmList.EXTRA_DUE_MILLIS,
+            System.currentTimeMillis()));
+    deliverDue.putExtra(AlarmClockService.COMMAND_EXTRA,
+        AlarmClockService.COMMAND_ALARMS_DUE);
+
+    context.startService(deliverDue);
   }
 }
@@ -25,14 +25,47 @@ public class ReceiverNotificationRefresh extends BroadcastReceiver {
     return PendingIntent.getBroadcast(context, 0, intent(context), 0);
   }
 
+  /**
+   * Arms the next refresh for the moment the countdown to alarmMillis, as
+   * displayed at AlarmTime.countdownGranularity(), next changes.  That is
+   * every minute for the last day before the alarm, but only every hour or
+   * every day when it is further away.
+   */
+  public static void scheduleRefresh(Context context, long alarmMillis) {
+    long next = nextRefresh(alarmMillis, System.currentTimeMillis());
+    if (next < 0) {
+      // The countdown has already been replaced by a fixed message.
+      stopRefreshing(context);
+      return;
+    }
+    final AlarmManager manager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    manager.set(AlarmManager.RTC, next, pendingIntent(context));
+  }
+
+  /**
+   * @return When the countdown to alarmMillis, as displayed at now, next
+   *     changes, or -1 if the alarm has already gone off.
+   */
+  static long nextRefresh(long alarmMillis, long now) {
+    long minute = AlarmUtil.Interval.MINUTE.millis();
+    if (alarmMillis < now) {
+      return -1;
+    } else if (alarmMillis / minute <= now / minute) {
+      return alarmMillis;
+    }
+    long step = AlarmTime.countdownGranularity(alarmMillis, now).millis()
+        / minute;
+    long minutesLeft = alarmMillis / minute - now / minute;
+    long shown = minutesLeft / step * step;
+    return (alarmMillis / minute - shown + 1) * minute;
+  }
+
+  // The service arms the next refresh itself once it has redrawn the
+  // notification.
   @Override
   public void onReceive(Context context, Intent intent) {
     final Intent causeRefresh = new Intent(context, AlarmClockService.class);
     causeRefresh.putExtra(AlarmClockService.COMMAND_EXTRA, AlarmClockService.COMMAND_NOTIFICATION_REFRESH);
     context.startService(causeRefresh);
-
-    long next = AlarmUtil.nextIntervalInUTC(AlarmUtil.Interval.MINUTE);
-    final AlarmManager manager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
-    manager.set(AlarmManager.RTC, next, pendingIntent(context));
   }
 }
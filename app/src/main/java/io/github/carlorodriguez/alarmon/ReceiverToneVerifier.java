@@ -0,0 +1,21 @@
+package io.github.carlorodriguez.alarmon;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+public class ReceiverToneVerifier extends BroadcastReceiver {
+
+  // The process may be killed once onReceive() returns, so the broadcast is
+  // kept pending until the verification is done.
+  @Override
+  public void onReceive(Context context, Intent intent) {
+    final PendingResult result = goAsync();
+    ToneVerifier.verifyAsync(context, new Runnable() {
+      @Override
+      public void run() {
+        result.finish();
+      }
+    });
+  }
+}
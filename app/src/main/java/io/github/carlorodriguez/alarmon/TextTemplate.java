@@ -0,0 +1,163 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.ArrayList;
+
+/**
+ * A user supplied text with placeholders for the time of the next alarm and
+ * the countdown to it, as used by the notification and the lock screen.  The
+ * text is parsed once into a list of literal segments and placeholders, so
+ * rendering it only appends strings to a reused buffer.
+ *
+ * Two syntaxes are understood.  Notification templates use ${t} and ${c};
+ * "$${" stands for a literal "${" and any other ${name} is left as it is.
+ * Lock screen formats use %t and %c.
+ */
+public final class TextTemplate {
+  private static final int LITERAL = 0;
+  private static final int TIME = 1;
+  private static final int COUNTDOWN = 2;
+
+  private final int[] kinds;
+  // The text of each LITERAL segment, null for the placeholders.
+  private final String[] literals;
+  private final StringBuilder buffer;
+
+  private TextTemplate(ArrayList<Integer> kinds, ArrayList<String> literals) {
+    this.kinds = new int[kinds.size()];
+    for (int i = 0; i < this.kinds.length; ++i) {
+      this.kinds[i] = kinds.get(i);
+    }
+    this.literals = literals.toArray(new String[literals.size()]);
+    this.buffer = new StringBuilder();
+  }
+
+  /**
+   * Parses a notification template which uses ${t} and ${c}.
+   */
+  public static TextTemplate compileVariables(String template) {
+    Parser parser = new Parser();
+    int literalStart = 0;
+    int i = 0;
+    while (i < template.length()) {
+      if (template.charAt(i) != '$') {
+        i++;
+        continue;
+      }
+      // An escaped prefix, "$${" stands for "${".
+      if (template.startsWith("$${", i)) {
+        parser.literal(template, literalStart, i);
+        literalStart = i + 1;
+        i += 3;
+        continue;
+      }
+      int end = template.indexOf('}', i);
+      if (!template.startsWith("${", i) || end < 0) {
+        i++;
+        continue;
+      }
+      int kind = variable(template.substring(i + 2, end));
+      if (kind == LITERAL) {
+        // Unknown variables are left in place.
+        i = end + 1;
+        continue;
+      }
+      parser.literal(template, literalStart, i);
+      parser.placeholder(kind);
+      i = end + 1;
+      literalStart = i;
+    }
+    parser.literal(template, literalStart, template.length());
+    return parser.build();
+  }
+
+  /**
+   * Parses a lock screen format which uses %t and %c.
+   */
+  public static TextTemplate compileFormat(String format) {
+    Parser parser = new Parser();
+    int literalStart = 0;
+    int i = 0;
+    while (i < format.length() - 1) {
+      if (format.charAt(i) != '%') {
+        i++;
+        continue;
+      }
+      int kind = variable(format.substring(i + 1, i + 2));
+      if (kind == LITERAL) {
+        i++;
+        continue;
+      }
+      parser.literal(format, literalStart, i);
+      parser.placeholder(kind);
+      i += 2;
+      literalStart = i;
+    }
+    parser.literal(format, literalStart, format.length());
+    return parser.build();
+  }
+
+  public synchronized String render(String time, String countdown) {
+    buffer.setLength(0);
+    for (int i = 0; i < kinds.length; ++i) {
+      switch (kinds[i]) {
+        case LITERAL:
+          buffer.append(literals[i]);
+          break;
+        case TIME:
+          buffer.append(time);
+          break;
+        case COUNTDOWN:
+          buffer.append(countdown);
+          break;
+      }
+    }
+    return buffer.toString();
+  }
+
+  private static int variable(String name) {
+    switch (name) {
+      case "t":
+        return TIME;
+      case "c":
+        return COUNTDOWN;
+      default:
+        return LITERAL;
+    }
+  }
+
+  private static final class Parser {
+    final ArrayList<Integer> kinds = new ArrayList<>();
+    final ArrayList<String> literals = new ArrayList<>();
+
+    void literal(String text, int start, int end) {
+      if (start < end) {
+        kinds.add(LITERAL);
+        literals.add(text.substring(start, end));
+      }
+    }
+
+    void placeholder(int kind) {
+      kinds.add(kind);
+      literals.add(null);
+    }
+
+    TextTemplate build() {
+      return new TextTemplate(kinds, literals);
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.provider.Settings;
+
+/**
+ * An on-disk cache of alarm tones decoded to 16 bit PCM, for PcmTonePlayer.
+ * Tones are decoded in the background when they are prepared for the next
+ * alarm, so that playing one later needs no media store access and no
+ * decoder.  Entries are keyed by the URI the tone resolves to and its
+ * modification time, so that a changed file or a different default sound is
+ * decoded afresh, and the least recently used ones are evicted once the cache
+ * grows past MAX_CACHE_BYTES.  Tones are resolved to their key in the
+ * background, by prepare() and refresh(), so that get() needs no queries
+ * while an alarm is firing.
+ *
+ * File format: the sample rate and the channel count as big endian ints,
+ * followed by the samples in native byte order.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+public final class ToneCache {
+  public static final int HEADER_BYTES = 8;
+  // A tone which decodes to more than this (about three minutes of 44.1kHz
+  // stereo) is left to the MediaPlayer.
+  private static final long MAX_TONE_BYTES = 32 * 1024 * 1024;
+  private static final long MAX_CACHE_BYTES = 64 * 1024 * 1024;
+  private static final long DEQUEUE_TIMEOUT_US = 10000;
+
+  private static final ExecutorService decoder =
+      Executors.newSingleThreadExecutor();
+  // The key each prepared tone resolved to when last looked up, and the
+  // decoded file for each key.  Both guarded by decoded.
+  private static final HashMap<Uri, String> keys = new HashMap<>();
+  private static final HashMap<String, File> decoded = new HashMap<>();
+
+  private ToneCache() {}
+
+  /**
+   * Resolves the tone to its key and decodes it into the cache in the
+   * background, unless it is there already.
+   */
+  public static void prepare(Context context, final Uri tone) {
+    if (tone == null) {
+      return;
+    }
+    final Context c = context.getApplicationContext();
+    decoder.execute(new Runnable() {
+      @Override
+      public void run() {
+        Uri actual = resolve(c, tone);
+        if (actual == null) {
+          synchronized (decoded) {
+            keys.remove(tone);
+          }
+          return;
+        }
+        String key = actual.toString() + "@" + modificationTime(c, actual);
+        File file;
+        synchronized (decoded) {
+          keys.put(tone, key);
+          file = decoded.get(key);
+        }
+        if (file != null && file.exists()) {
+          return;
+        }
+        file = fileFor(c, key);
+        if (file == null) {
+          return;
+        }
+        if (!file.exists()) {
+          File partial = new File(file.getPath() + ".tmp");
+          boolean complete = false;
+          try {
+            complete = decode(c, actual, partial);
+          } catch (Exception e) {
+            e.printStackTrace();
+          }
+          if (!complete || !partial.renameTo(file)) {
+            partial.delete();
+            return;
+          }
+          evict(file.getParentFile());
+        }
+        synchronized (decoded) {
+          decoded.put(key, file);
+        }
+      }
+    });
+  }
+
+  /**
+   * Resolves every prepared tone again in the background, decoding those
+   * which now point to a different or changed file.
+   */
+  public static void refresh(Context context) {
+    Uri[] tones;
+    synchronized (decoded) {
+      tones = keys.keySet().toArray(new Uri[keys.size()]);
+    }
+    for (Uri tone : tones) {
+      prepare(context, tone);
+    }
+  }
+
+  /**
+   * @return The decoded tone, or null if it has not been prepared and
+   *     decoded.  Makes no queries, so it is safe while an alarm is firing.
+   */
+  public static File get(Uri tone) {
+    if (tone == null) {
+      return null;
+    }
+    File file;
+    synchronized (decoded) {
+      String key = keys.get(tone);
+      file = key == null ? null : decoded.get(key);
+    }
+    if (file == null || !file.exists()) {
+      return null;
+    }
+    // Most recently used, as far as eviction is concerned.
+    file.setLastModified(System.currentTimeMillis());
+    return file;
+  }
+
+  private static File fileFor(Context c, String key) {
+    File dir = new File(c.getCacheDir(), "tones");
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      return null;
+    }
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(
+          key.getBytes("UTF-8"));
+      StringBuilder name = new StringBuilder();
+      for (byte b : digest) {
+        name.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+      }
+      return new File(dir, name.append(".pcm").toString());
+    } catch (NoSuchAlgorithmException | IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  // The default sounds are settings URIs which point somewhere else; key
+  // them by what they point to, so that changing the default is noticed.
+  private static Uri resolve(Context c, Uri tone) {
+    if (Settings.AUTHORITY.equals(tone.getAuthority())) {
+      return RingtoneManager.getActualDefaultRingtoneUri(c,
+          RingtoneManager.getDefaultType(tone));
+    }
+    return tone;
+  }
+
+  private static long modificationTime(Context c, Uri tone) {
+    if (ContentResolver.SCHEME_FILE.equals(tone.getScheme())) {
+      return new File(tone.getPath()).lastModified();
+    }
+    Cursor cursor = null;
+    try {
+      cursor = c.getContentResolver().query(tone,
+          new String[] { MediaStore.MediaColumns.DATE_MODIFIED },
+          null, null, null);
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getLong(0);
+      }
+    } catch (Exception e) {
+      // Not every provider knows about DATE_MODIFIED.
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
+    return 0;
+  }
+
+  private static boolean decode(Context c, Uri tone, File out)
+      throws IOException {
+    MediaExtractor extractor = new MediaExtractor();
+    MediaCodec codec = null;
+    RandomAccessFile file = new RandomAccessFile(out, "rw");
+    try {
+      extractor.setDataSource(c, tone, null);
+      MediaFormat format = null;
+      for (int i = 0; i < extractor.getTrackCount(); ++i) {
+        MediaFormat trackFormat = extractor.getTrackFormat(i);
+        String mime = trackFormat.getString(MediaFormat.KEY_MIME);
+        if (mime != null && mime.startsWith("audio/")) {
+          extractor.selectTrack(i);
+          format = trackFormat;
+          break;
+        }
+      }
+      if (format == null) {
+        return false;
+      }
+      int sampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+      int channels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+
+      codec = MediaCodec.createDecoderByType(
+          format.getString(MediaFormat.KEY_MIME));
+      codec.configure(format, null, null, 0);
+      codec.start();
+
+      file.setLength(0);
+      file.seek(HEADER_BYTES);
+      ByteBuffer[] inputs = codec.getInputBuffers();
+      ByteBuffer[] outputs = codec.getOutputBuffers();
+      MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+      byte[] chunk = new byte[0];
+      long written = 0;
+      boolean inputDone = false;
+      while (true) {
+        if (!inputDone) {
+          int in = codec.dequeueInputBuffer(DEQUEUE_TIMEOUT_US);
+          if (in >= 0) {
+            int size = extractor.readSampleData(inputs[in], 0);
+            if (size < 0) {
+              codec.queueInputBuffer(in, 0, 0, 0,
+                  MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+              inputDone = true;
+            } else {
+              codec.queueInputBuffer(in, 0, size, extractor.getSampleTime(), 0);
+              extractor.advance();
+            }
+          }
+        }
+
+        int outIndex = codec.dequeueOutputBuffer(info, DEQUEUE_TIMEOUT_US);
+        if (outIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+          outputs = codec.getOutputBuffers();
+        } else if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+          MediaFormat outputFormat = codec.getOutputFormat();
+          sampleRate = outputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+          channels = outputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        } else if (outIndex >= 0) {
+          if (info.size > 0) {
+            written += info.size;
+            if (written > MAX_TONE_BYTES) {
+              return false;
+            }
+            if (chunk.length < info.size) {
+              chunk = new byte[info.size];
+            }
+            ByteBuffer output = outputs[outIndex];
+            output.position(info.offset);
+            output.limit(info.offset + info.size);
+            output.get(chunk, 0, info.size);
+            file.write(chunk, 0, info.size);
+          }
+          codec.releaseOutputBuffer(outIndex, false);
+          if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            break;
+          }
+        }
+      }
+      // PcmTonePlayer only handles mono and stereo.
+      if (written == 0 || channels < 1 || channels > 2) {
+        return false;
+      }
+      file.seek(0);
+      file.writeInt(sampleRate);
+      file.writeInt(channels);
+      return true;
+    } finally {
+      if (codec != null) {
+        try {
+          codec.stop();
+        } catch (IllegalStateException e) {
+          // Never started.
+        }
+        codec.release();
+      }
+      extractor.release();
+      file.close();
+    }
+  }
+
+  private static void evict(File dir) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File lhs, File rhs) {
+        long l = lhs.lastModified();
+        long r = rhs.lastModified();
+        return l < r ? 1 : (l > r ? -1 : 0);
+      }
+    });
+    long total = 0;
+    for (File file : files) {
+      total += file.length();
+      if (total > MAX_CACHE_BYTES) {
+        synchronized (decoded) {
+          decoded.values().remove(file);
+        }
+        file.delete();
+      }
+    }
+  }
+}
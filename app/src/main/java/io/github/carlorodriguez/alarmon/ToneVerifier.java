@@ -0,0 +1,206 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.Settings;
+
+/**
+ * Checks in the background that the tone of every alarm can still be opened,
+ * for example that it was not on an SD card which has since been removed.
+ * The tones which can't be opened are recorded, along with a fallback tone
+ * which can, so that a firing alarm can go straight to the fallback instead
+ * of probing storage and waiting for the media player to fail.
+ *
+ * Verification runs whenever alarm settings are saved and once a day, see
+ * schedule().  It also has the ToneCache look its tones up again, so that a
+ * changed file or default sound is decoded before the alarm fires.
+ */
+public final class ToneVerifier {
+  private static final String PREFERENCES = "tone_verifier";
+  private static final String FALLBACK = "fallback";
+  private static final String BROKEN_PREFIX = "broken:";
+
+  private static final ExecutorService verifier =
+      Executors.newSingleThreadExecutor();
+
+  private ToneVerifier() {}
+
+  /**
+   * Verifies now and arms a daily verification, unless one is armed already.
+   * Nothing is armed after a reboot, so this verifies once per boot too.
+   */
+  public static void schedule(Context context) {
+    Intent intent = new Intent(context, ReceiverToneVerifier.class);
+    if (PendingIntent.getBroadcast(context, 0, intent,
+        PendingIntent.FLAG_NO_CREATE) != null) {
+      return;
+    }
+    final AlarmManager manager =
+        (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+    manager.setInexactRepeating(AlarmManager.ELAPSED_REALTIME,
+        SystemClock.elapsedRealtime() + AlarmManager.INTERVAL_DAY,
+        AlarmManager.INTERVAL_DAY,
+        PendingIntent.getBroadcast(context, 0, intent, 0));
+    verifyAsync(context);
+  }
+
+  public static void verifyAsync(Context context) {
+    verifyAsync(context, null);
+  }
+
+  /**
+   * Verifies every configured tone in the background.
+   *
+   * @param done Run on the background thread once the results are saved,
+   * may be null.
+   */
+  public static void verifyAsync(Context context, final Runnable done) {
+    final Context c = context.getApplicationContext();
+    verifier.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          verify(c);
+        } catch (Exception e) {
+          e.printStackTrace();
+        } finally {
+          if (done != null) {
+            done.run();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * @return Whether the last verification found that this tone could not be
+   * opened.
+   */
+  public static boolean isBroken(Context c, Uri tone) {
+    return tone != null && preferences(c).getBoolean(
+        BROKEN_PREFIX + tone.toString(), false);
+  }
+
+  /**
+   * @return A tone which could be opened when last verified, or null if
+   * none has been found yet.
+   */
+  public static Uri fallbackTone(Context c) {
+    String fallback = preferences(c).getString(FALLBACK, null);
+    return fallback == null ? null : Uri.parse(fallback);
+  }
+
+  /**
+   * @return The tone to play for an alarm configured with this one: the
+   * tone itself, or the fallback if it is known to be broken.
+   */
+  public static Uri playableTone(Context c, Uri tone) {
+    if (!isBroken(c, tone)) {
+      return tone;
+    }
+    Uri fallback = fallbackTone(c);
+    return fallback == null ? tone : fallback;
+  }
+
+  private static void verify(Context c) {
+    LinkedHashSet<String> tones = new LinkedHashSet<>();
+    // Alarms without their own settings use this one.
+    tones.add(AlarmUtil.getDefaultAlarmUri().toString());
+    DbAccessor db = DbAccessor.acquire(c);
+    try {
+      tones.addAll(db.readToneUris());
+    } finally {
+      db.release();
+    }
+
+    // Replace the previous results entirely, so that tones which are no
+    // longer configured or have come back are forgotten.
+    SharedPreferences.Editor editor = preferences(c).edit().clear();
+    for (String tone : tones) {
+      if (!canOpen(c, Uri.parse(tone))) {
+        editor.putBoolean(BROKEN_PREFIX + tone, true);
+      }
+    }
+    Uri fallback = findFallback(c);
+    if (fallback != null) {
+      editor.putString(FALLBACK, fallback.toString());
+    }
+    editor.apply();
+
+    if (AppSettings.usePcmTones(c)) {
+      ToneCache.refresh(c);
+    }
+  }
+
+  // The default sounds are tried first; the last resort is whatever the
+  // ringtone manager can find.
+  private static Uri findFallback(Context c) {
+    Uri[] candidates = {
+        RingtoneManager.getActualDefaultRingtoneUri(c,
+            RingtoneManager.TYPE_ALARM),
+        RingtoneManager.getActualDefaultRingtoneUri(c,
+            RingtoneManager.TYPE_NOTIFICATION),
+        RingtoneManager.getActualDefaultRingtoneUri(c,
+            RingtoneManager.TYPE_RINGTONE),
+        RingtoneManager.getValidRingtoneUri(c),
+    };
+    for (Uri candidate : candidates) {
+      if (candidate != null && canOpen(c, candidate)) {
+        return candidate;
+      }
+    }
+    return null;
+  }
+
+  private static boolean canOpen(Context c, Uri tone) {
+    // The default sounds are settings URIs which point somewhere else.
+    if (Settings.AUTHORITY.equals(tone.getAuthority())) {
+      tone = RingtoneManager.getActualDefaultRingtoneUri(c,
+          RingtoneManager.getDefaultType(tone));
+      if (tone == null) {
+        return false;
+      }
+    }
+    try {
+      AssetFileDescriptor fd =
+          c.getContentResolver().openAssetFileDescriptor(tone, "r");
+      if (fd == null) {
+        return false;
+      }
+      fd.close();
+      return true;
+    } catch (Exception e) {
+      return false;
+    }
+  }
+
+  private static SharedPreferences preferences(Context c) {
+    return c.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+  }
+}
@@ -0,0 +1,99 @@
+/****************************************************************************
+ * Copyright 2010 kraigs.android@gmail.com
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ****************************************************************************/
+
+package io.github.carlorodriguez.alarmon;
+
+/**
+ * Computes the volume of a firing alarm as it fades from its start volume to
+ * its end volume.  The volume is a function of the time elapsed since
+ * start(), not of how often it is asked for, so a late or skipped update
+ * never makes the ramp longer.  Time comes from a Clock, which is
+ * SystemClock.uptimeMillis() in the app and can be faked elsewhere.  Nothing
+ * is allocated after construction.
+ */
+public final class VolumeRamp {
+  /**
+   * How often the volume should be updated while ramping.  The mixer only
+   * applies a new volume once per buffer (around 20ms), so updating much
+   * more often than this gains nothing.
+   */
+  public static final long STEP_MILLIS = 50;
+
+  /**
+   * The shape of the ramp, as a function of the fraction of the ramp time
+   * which has elapsed.
+   */
+  public enum Curve {
+    // Equal volume steps in equal times.
+    LINEAR,
+    // Loud quickly, then levels off.
+    LOGARITHMIC,
+    // Starts quietly and rises fastest at the end.  Loudness is perceived
+    // logarithmically, so this is the one that sounds most even.
+    EXPONENTIAL;
+
+    float apply(float fraction) {
+      switch (this) {
+        case LOGARITHMIC:
+          return (float) Math.log10(1 + 9 * fraction);
+        case EXPONENTIAL:
+          return (float) ((Math.pow(10, fraction) - 1) / 9);
+        default:
+          return fraction;
+      }
+    }
+  }
+
+  public interface Clock {
+    long uptimeMillis();
+  }
+
+  private final Clock clock;
+  private float from;
+  private float to;
+  private long startMillis;
+  private long durationMillis;
+  private Curve curve;
+
+  public VolumeRamp(Clock clock) {
+    this.clock = clock;
+    this.curve = Curve.LINEAR;
+  }
+
+  /**
+   * Begins a ramp from volume 'from' to volume 'to' (both between 0 and 1)
+   * over durationMillis, starting now.
+   */
+  public void start(float from, float to, long durationMillis, Curve curve) {
+    this.from = from;
+    this.to = to;
+    this.durationMillis = Math.max(0, durationMillis);
+    this.curve = curve;
+    this.startMillis = clock.uptimeMillis();
+  }
+
+  public float volume() {
+    long elapsed = clock.uptimeMillis() - startMillis;
+    if (elapsed >= durationMillis) {
+      return to;
+    }
+    float fraction = Math.max(0, elapsed) / (float) durationMillis;
+    return from + (to - from) * curve.apply(fraction);
+  }
+
+  public boolean isFinished() {
+    return clock.uptimeMillis() - startMillis >= durationMillis;
+  }
+}
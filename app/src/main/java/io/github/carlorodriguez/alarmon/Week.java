@@ -6,12 +6,12 @@ import android.content.Context;
 import android.os.Parcel;
 import android.os.Parcelable;
 
-public class Week implements Parcelable {
-  public static final Week NO_REPEATS = new Week(new boolean[] {false, false, false, false, false, false, false});
-  public static final Week EVERYDAY = new Week(new boolean[] {true, true, true, true, true, true, true});
-  public static final Week WEEKDAYS = new Week(new boolean[] {false, true, true, true, true, true, false});
-  public static final Week WEEKENDS = new Week(new boolean[] {true, false, false, false, false, false, true});
-
+/**
+ * An immutable set of days of the week, packed into the low seven bits of a
+ * byte with bit n set for Day ordinal n.  There are only 128 possible values,
+ * so every instance is interned and obtained through valueOf().
+ */
+public final class Week implements Parcelable {
   public enum Day {
     SUN(R.string.dow_sun),
     MON(R.string.dow_mon),
@@ -29,72 +29,105 @@ public class Week implements Parcelable {
     }
   }
 
-  private boolean[] bitmask;
-
-  public Week(Parcel source) {
-    bitmask = source.createBooleanArray();
+  // Day.values() clones its array on every call, so keep one copy around.
+  private static final Day[] DAYS = Day.values();
+  private static final int ALL_DAYS = (1 << DAYS.length) - 1;
+  private static final Week[] WEEKS = new Week[ALL_DAYS + 1];
+  static {
+    for (int mask = 0; mask <= ALL_DAYS; ++mask) {
+      WEEKS[mask] = new Week((byte) mask);
+    }
   }
 
-  @Override
-  public void writeToParcel(Parcel dest, int flags) {
-    dest.writeBooleanArray(bitmask);
+  public static final Week NO_REPEATS = valueOf(0);
+  public static final Week EVERYDAY = valueOf(ALL_DAYS);
+  public static final Week WEEKDAYS = valueOf(
+      bit(Day.MON) | bit(Day.TUE) | bit(Day.WED) | bit(Day.THU) | bit(Day.FRI));
+  public static final Week WEEKENDS = valueOf(bit(Day.SUN) | bit(Day.SAT));
+
+  private final byte mask;
+
+  private Week(byte mask) {
+    this.mask = mask;
   }
 
-  public Week() {
-    bitmask = new boolean[Day.values().length];
+  /**
+   * @param mask Days packed with bit n set for Day ordinal n.  Bits above
+   *     the seventh are ignored.
+   * @return The interned Week for this mask.
+   */
+  public static Week valueOf(int mask) {
+    return WEEKS[mask & ALL_DAYS];
   }
 
-  public Week(Week rhs) {
-    bitmask = rhs.bitmask.clone();
+  @Override
+  public void writeToParcel(Parcel dest, int flags) {
+    dest.writeInt(mask);
   }
 
-  public Week(boolean[] bitmask) {
-    if (bitmask.length != Day.values().length) {
-      throw new IllegalArgumentException("Wrong sized bitmask: " + bitmask.length);
-    }
-    this.bitmask = bitmask;
+  /**
+   * @return The days of this week packed into an int, with bit n set for
+   *     Day ordinal n.
+   */
+  public int mask() {
+    return mask;
   }
 
+  /**
+   * @return A new array with one entry per Day, as expected by list dialogs.
+   */
   public boolean[] bitmask() {
+    boolean[] bitmask = new boolean[DAYS.length];
+    for (int i = 0; i < DAYS.length; ++i) {
+      bitmask[i] = (mask & (1 << i)) != 0;
+    }
     return bitmask;
   }
 
-  public void addDay(Day day) {
-    bitmask[day.ordinal()] = true;
+  public Week withDay(Day day) {
+    return valueOf(mask | bit(day));
   }
 
-  public void removeDay(Day day) {
-    bitmask[day.ordinal()] = false;
+  public Week withoutDay(Day day) {
+    return valueOf(mask & ~bit(day));
   }
 
   public boolean hasDay(Day day) {
-    return bitmask[day.ordinal()];
+    return (mask & bit(day)) != 0;
+  }
+
+  public static Day day(int ordinal) {
+    return DAYS[ordinal];
+  }
+
+  private static int bit(Day day) {
+    return 1 << day.ordinal();
   }
 
   public CharSequence[] names(Context context) {
-    CharSequence[] nameList = new CharSequence[Day.values().length];
-    for (Day day : Day.values()) {
+    CharSequence[] nameList = new CharSequence[DAYS.length];
+    for (Day day : DAYS) {
       nameList[day.ordinal()] = context.getString(day.stringId());
     }
     return nameList;
   }
 
   public String toString(Context context) {
-    if (this.equals(NO_REPEATS)) {
+    if (this == NO_REPEATS) {
       return context.getString(R.string.no_repeats);
     }
-    if (this.equals(EVERYDAY)) {
+    if (this == EVERYDAY) {
       return context.getString(R.string.everyday);
     }
-    if (this.equals(WEEKDAYS)) {
+    if (this == WEEKDAYS) {
       return context.getString(R.string.weekdays);
     }
-    if (this.equals(WEEKENDS)) {
+    if (this == WEEKENDS) {
       return context.getString(R.string.weekends);
     }
     String list = "";
-    for (Day day : Day.values()) {
-      if (!bitmask[day.ordinal()]) {
+    for (Day day : DAYS) {
+      if (!hasDay(day)) {
         continue;
       }
       switch (day) {
@@ -129,16 +162,12 @@ public class Week implements Parcelable {
     if (!(o instanceof Week)) {
       return false;
     }
-    Week rhs = (Week) o;
-    if (bitmask.length != rhs.bitmask.length) {
-      return false;
-    }
-    for (Day day : Day.values()) {
-      if (bitmask[day.ordinal()] != rhs.bitmask[day.ordinal()]) {
-        return false;
-      }
-    }
-    return true;
+    return mask == ((Week) o).mask;
+  }
+
+  @Override
+  public int hashCode() {
+    return mask;
   }
 
   @Override
@@ -150,7 +179,7 @@ public class Week implements Parcelable {
     new Parcelable.Creator<Week>() {
       @Override
       public Week createFromParcel(Parcel source) {
-        return new Week(source);
+        return valueOf(source.readInt());
       }
       @Override
       public Week[] newArray(int size) {
@@ -160,6 +189,6 @@ public class Week implements Parcelable {
 
   public static Day calendarToDay(int dow) {
     int ordinalOffset = dow - Calendar.SUNDAY;
-    return Day.values()[ordinalOffset];
+    return DAYS[ordinalOffset];
   }
 }
@@ -0,0 +1,168 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AlarmListDiffTest {
+  private static final String[] NAMES = { null, "", "Work" };
+
+  private static AlarmInfo alarm(long alarmId, int secondsAfterMidnight,
+      boolean enabled, String name) {
+    return new AlarmInfo(alarmId,
+        new AlarmTime(secondsAfterMidnight, Week.NO_REPEATS), enabled, name);
+  }
+
+  private static AlarmInfo alarm(long alarmId) {
+    return alarm(alarmId, 0, true, null);
+  }
+
+  // Plays the steps back the way RecyclerView would on a copy of the old
+  // list.  Inserted and changed positions take the alarm from the new list,
+  // the rest keep their old contents, so a missing step leaves the result
+  // different from the new list.
+  private static final class Replay implements AlarmListDiff.Callback {
+    final List<AlarmInfo> shown;
+    final List<AlarmInfo> target;
+    final ArrayList<Integer> inserted = new ArrayList<>();
+    int changes;
+
+    Replay(List<AlarmInfo> from, List<AlarmInfo> to) {
+      shown = new ArrayList<>(from);
+      target = to;
+    }
+
+    @Override
+    public void onRemoved(int position) {
+      assertEquals(0, changes);
+      shown.remove(position);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+      assertEquals(0, changes);
+      shown.add(toPosition, shown.remove(fromPosition));
+    }
+
+    @Override
+    public void onInserted(int position) {
+      assertEquals(0, changes);
+      shown.add(position, null);
+    }
+
+    @Override
+    public void onChanged(int position) {
+      changes++;
+      shown.set(position, target.get(position));
+    }
+
+    List<AlarmInfo> result() {
+      ArrayList<AlarmInfo> result = new ArrayList<>(shown);
+      for (int i = 0; i < result.size(); ++i) {
+        if (result.get(i) == null) {
+          result.set(i, target.get(i));
+        }
+      }
+      return result;
+    }
+  }
+
+  private static Replay replay(List<AlarmInfo> from, List<AlarmInfo> to) {
+    Replay replay = new Replay(from, to);
+    AlarmListDiff.compute(from, to).dispatchTo(replay);
+    assertEquals(to, replay.result());
+    return replay;
+  }
+
+  @Test
+  public void sameListHasNoSteps() {
+    List<AlarmInfo> list = Arrays.asList(alarm(1), alarm(2), alarm(3));
+    assertTrue(AlarmListDiff.compute(list, new ArrayList<>(list)).isEmpty());
+  }
+
+  @Test
+  public void insertsAndRemoves() {
+    List<AlarmInfo> from = Arrays.asList(alarm(1), alarm(2), alarm(3));
+    List<AlarmInfo> to = Arrays.asList(alarm(4), alarm(1), alarm(3), alarm(5));
+    Replay replay = replay(from, to);
+    assertEquals(0, replay.changes);
+    assertNull(replay.shown.get(0));
+    assertNull(replay.shown.get(3));
+  }
+
+  @Test
+  public void movesKeepTheirContents() {
+    List<AlarmInfo> from = Arrays.asList(alarm(1), alarm(2), alarm(3), alarm(4));
+    List<AlarmInfo> to = Arrays.asList(alarm(4), alarm(2), alarm(3), alarm(1));
+    Replay replay = replay(from, to);
+    assertEquals(0, replay.changes);
+  }
+
+  @Test
+  public void changesAreReportedAtTheirNewPositions() {
+    List<AlarmInfo> from = Arrays.asList(alarm(1, 60, true, "Work"),
+        alarm(2, 120, true, null), alarm(3, 180, true, null));
+    List<AlarmInfo> to = Arrays.asList(alarm(3, 180, false, null),
+        alarm(1, 60, true, "Work"), alarm(2, 120, true, "Gym"));
+    Replay replay = replay(from, to);
+    assertEquals(2, replay.changes);
+  }
+
+  @Test
+  public void nullNamesCompareEqual() {
+    List<AlarmInfo> from = Arrays.asList(alarm(1, 60, true, null),
+        alarm(2, 120, true, null));
+    List<AlarmInfo> to = Arrays.asList(alarm(1, 60, true, null),
+        alarm(2, 120, true, ""));
+    Replay replay = replay(from, to);
+    assertEquals(1, replay.changes);
+    assertEquals(to.get(1), replay.shown.get(1));
+  }
+
+  @Test
+  public void randomListsReplayToTheTarget() {
+    Random random = new Random(12);
+    for (int round = 0; round < 2000; ++round) {
+      int ids = 1 + random.nextInt(12);
+      HashMap<Long, AlarmInfo> old = new HashMap<>();
+      ArrayList<AlarmInfo> from = new ArrayList<>();
+      ArrayList<AlarmInfo> to = new ArrayList<>();
+      for (long alarmId = 1; alarmId <= ids; ++alarmId) {
+        AlarmInfo before = randomAlarm(random, alarmId);
+        if (random.nextInt(4) != 0) {
+          from.add(before);
+          old.put(alarmId, before);
+        }
+        if (random.nextInt(4) != 0) {
+          to.add(old.containsKey(alarmId) && random.nextBoolean()
+              ? new AlarmInfo(before) : randomAlarm(random, alarmId));
+        }
+      }
+      Collections.shuffle(from, random);
+      Collections.shuffle(to, random);
+
+      int expectedChanges = 0;
+      for (AlarmInfo after : to) {
+        AlarmInfo before = old.get(after.getAlarmId());
+        if (before != null && !before.equals(after)) {
+          expectedChanges++;
+        }
+      }
+      assertEquals(expectedChanges, replay(from, to).changes);
+    }
+  }
+
+  private static AlarmInfo randomAlarm(Random random, long alarmId) {
+    return alarm(alarmId, 60 * random.nextInt(3), random.nextBoolean(),
+        NAMES[random.nextInt(NAMES.length)]);
+  }
+}
@@ -0,0 +1,184 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class AlarmQueueTest {
+  // The model: alarm id -> due time, and (due time, id) in queue order.
+  private final HashMap<Long, Long> timeById = new HashMap<>();
+  private final TreeMap<Key, String> order = new TreeMap<>();
+  private final AlarmQueue<String> queue = new AlarmQueue<>();
+
+  private static final class Key implements Comparable<Key> {
+    final long time;
+    final long id;
+
+    Key(long time, long id) {
+      this.time = time;
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(Key another) {
+      if (time != another.time) {
+        return time < another.time ? -1 : 1;
+      }
+      return id < another.id ? -1 : (id == another.id ? 0 : 1);
+    }
+  }
+
+  private void put(long id, long time) {
+    String value = id + "@" + time;
+    queue.put(id, time, value);
+    Long previous = timeById.put(id, time);
+    if (previous != null) {
+      order.remove(new Key(previous, id));
+    }
+    order.put(new Key(time, id), value);
+  }
+
+  private void remove(long id) {
+    Long time = timeById.remove(id);
+    String expected = time == null ? null : order.remove(new Key(time, id));
+    assertEquals(expected, queue.remove(id));
+  }
+
+  private void poll() {
+    Map.Entry<Key, String> first = order.firstEntry();
+    assertEquals(first.getKey().id, queue.peekId());
+    assertEquals(first.getKey().time, queue.peekTime());
+    assertEquals(first.getValue(), queue.peek());
+    remove(first.getKey().id);
+  }
+
+  private void assertMatchesModel() {
+    assertEquals(timeById.size(), queue.size());
+    if (!order.isEmpty()) {
+      assertEquals(order.firstKey().id, queue.peekId());
+      assertEquals(order.firstKey().time, queue.peekTime());
+    }
+    for (int i = 0; i < queue.size(); ++i) {
+      long id = queue.idAt(i);
+      assertEquals(timeById.get(id), Long.valueOf(queue.timeAt(i)));
+      assertEquals(order.get(new Key(queue.timeAt(i), id)), queue.valueAt(i));
+    }
+    for (Map.Entry<Long, Long> entry : timeById.entrySet()) {
+      long id = entry.getKey();
+      assertTrue(queue.contains(id));
+      assertEquals(entry.getValue().longValue(), queue.timeOf(id));
+      assertEquals(order.get(new Key(entry.getValue(), id)), queue.get(id));
+    }
+  }
+
+  // Ids whose home slot is the same in a table of the given size.
+  private static long[] collidingIds(int count, int tableSize) {
+    long[] ids = new long[count];
+    int found = 0;
+    for (long id = 1; found < count; ++id) {
+      if (AlarmQueue.hash(id, tableSize - 1) == 5) {
+        ids[found++] = id;
+      }
+    }
+    return ids;
+  }
+
+  @Test
+  public void emptyQueue() {
+    assertEquals(0, queue.size());
+    assertFalse(queue.contains(1));
+    assertNull(queue.get(1));
+    assertEquals(-1, queue.timeOf(1));
+    assertNull(queue.remove(1));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void peekOnEmptyQueueThrows() {
+    queue.peekId();
+  }
+
+  @Test
+  public void sameTimeIsOrderedById() {
+    put(7, 100);
+    put(3, 100);
+    put(5, 100);
+    poll();
+    poll();
+    poll();
+    assertEquals(0, queue.size());
+  }
+
+  @Test
+  public void collidingIdsSurviveRemovalFromTheMiddleOfTheirRun() {
+    // The initial table has 32 slots.
+    long[] ids = collidingIds(10, 32);
+    for (int i = 0; i < ids.length; ++i) {
+      put(ids[i], 1000 - i);
+    }
+    assertMatchesModel();
+    for (int i = 1; i < ids.length; i += 2) {
+      remove(ids[i]);
+      assertMatchesModel();
+    }
+    for (int i = 0; i < ids.length; i += 2) {
+      put(ids[i], i);
+      assertMatchesModel();
+    }
+  }
+
+  @Test
+  public void growsPastItsInitialCapacity() {
+    // Colliding in the initial table, and most of them in the grown ones.
+    long[] ids = collidingIds(200, 32);
+    for (int i = 0; i < ids.length; ++i) {
+      put(ids[i], (i * 37) % 101);
+    }
+    assertMatchesModel();
+    while (!order.isEmpty()) {
+      poll();
+    }
+    assertMatchesModel();
+  }
+
+  @Test
+  public void randomOperationsMatchASortedMap() {
+    Random random = new Random(1);
+    ArrayList<Long> ids = new ArrayList<>();
+    // A few ranges: dense small ids, ids which collide, and large ones.
+    for (long id = 0; id < 40; ++id) {
+      ids.add(id);
+    }
+    for (long id : collidingIds(40, 64)) {
+      ids.add(id);
+    }
+    for (int i = 0; i < 40; ++i) {
+      ids.add(random.nextLong());
+    }
+
+    for (int round = 0; round < 20000; ++round) {
+      long id = ids.get(random.nextInt(ids.size()));
+      int op = random.nextInt(10);
+      if (op < 5) {
+        // Few distinct times, so that ties are common.
+        put(id, random.nextInt(50));
+      } else if (op < 8) {
+        remove(id);
+      } else if (!order.isEmpty()) {
+        poll();
+      }
+      if (round % 97 == 0) {
+        assertMatchesModel();
+      }
+    }
+    assertMatchesModel();
+  }
+}
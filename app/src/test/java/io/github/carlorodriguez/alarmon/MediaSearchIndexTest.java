@@ -0,0 +1,91 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MediaSearchIndexTest {
+  @Before
+  public void setUp() {
+    // In title order, as the media_index table is read.
+    MediaSearchIndex.setSongs(
+        new long[] { 11, 12, 13, 14, 15, 16 },
+        new String[][] {
+            { "Bird Song", "The Larks", "Pastel Dawn" },
+            { "Morning Has Broken", "Cat Stevens", "Teaser and the Firecat" },
+            { "Songbird", "Fleetwood Mac", "Rumours" },
+            { "Sunrise", null, "Ambient Works" },
+            { "Wake Me Up", "Avicii", "True" },
+            { "Wonderwall", "Oasis", null },
+        });
+  }
+
+  private static void assertFound(String query, int limit, long... ids) {
+    assertArrayEquals(query, ids, MediaSearchIndex.searchIds(query, limit));
+  }
+
+  @Test
+  public void wordStartsComeBeforeMidWordMatches() {
+    // "Bird Song" and "Songbird" both start a word with "song"; only the
+    // former has "bird" at the start of a word.
+    assertFound("bird", 10, 11, 13);
+    assertFound("song", 10, 11, 13);
+    // In "Firecat" the match is inside a word, in "Cat Stevens" it is not.
+    assertFound("cat", 10, 12);
+    // Only ever found inside words.
+    assertFound("ake", 10, 15);
+    assertFound("ning", 10, 12);
+  }
+
+  @Test
+  public void aLaterWordStartPromotesASong() {
+    // In "Morning Has Broken" by Cat Stevens, "te" is first found inside
+    // "Stevens" and then at the start of "Teaser"; in "Pastel Dawn" it is
+    // only ever inside a word.
+    assertFound("te", 10, 12, 11);
+    // "Rumours" starts with "ru", "True" doesn't.
+    assertFound("ru", 10, 13, 15);
+  }
+
+  @Test
+  public void matchesArtistsAndAlbums() {
+    assertFound("fleetwood", 10, 13);
+    assertFound("ambient", 10, 14);
+    assertFound("oasis", 10, 16);
+    assertFound("avicii", 10, 15);
+    assertFound("the", 10, 11, 12);
+  }
+
+  @Test
+  public void ignoresCaseAndSurroundingSpace() {
+    assertFound("  WONDER ", 10, 16);
+    assertFound("Morning has", 10, 12);
+  }
+
+  @Test
+  public void doesNotMatchAcrossFields() {
+    // "Sunrise" is followed by an empty artist, then "Ambient Works".
+    assertFound("sunriseambient", 10);
+    assertFound("song the", 10);
+  }
+
+  @Test
+  public void stopsAtTheLimit() {
+    // Word starts in title order, then "Dawn" and "Fleetwood".
+    assertFound("w", 10, 14, 15, 16, 11, 13);
+    assertFound("w", 4, 14, 15, 16, 11);
+    assertFound("w", 3, 14, 15, 16);
+    assertFound("w", 1, 14);
+    // Only "Oasis" starts with it; the others have it inside words.
+    assertFound("o", 100, 16, 11, 12, 13, 14);
+    assertFound("o", 2, 16, 11);
+  }
+
+  @Test
+  public void emptyQueryFindsNothing() {
+    assertFound("", 10);
+    assertFound("   ", 10);
+    assertFound("zzz", 10);
+  }
+}
@@ -0,0 +1,267 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class NextOccurrenceTest {
+  private static final long MINUTE = 60 * 1000;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+  private static final int ALL_DAYS = 0x7F;
+
+  private static final TimeZone NEW_YORK =
+      TimeZone.getTimeZone("America/New_York");
+  // Daylight saving time is half an hour there.
+  private static final TimeZone LORD_HOWE =
+      TimeZone.getTimeZone("Australia/Lord_Howe");
+  // Clocks change at midnight there.
+  private static final TimeZone SAO_PAULO =
+      TimeZone.getTimeZone("America/Sao_Paulo");
+
+  private static int seconds(int hour, int minute) {
+    return hour * 3600 + minute * 60;
+  }
+
+  private static int bit(int calendarDayOfWeek) {
+    return 1 << (calendarDayOfWeek - Calendar.SUNDAY);
+  }
+
+  private static long utc(int year, int month, int day, int hour, int minute) {
+    Calendar c = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+    c.clear();
+    c.set(year, month, day, hour, minute);
+    return c.getTimeInMillis();
+  }
+
+  /**
+   * The next occurrence as AlarmTime found it before NextOccurrence: the
+   * calendar set up the way its constructor did, then its
+   * findNextOccurrence().
+   */
+  private static long reference(long nowMillis, int secondsAfterMidnight,
+      int dayMask, TimeZone zone) {
+    Calendar calendar = new GregorianCalendar(zone);
+    calendar.setTimeInMillis(nowMillis);
+    calendar.set(Calendar.HOUR_OF_DAY, secondsAfterMidnight / 3600);
+    calendar.set(Calendar.MINUTE, secondsAfterMidnight / 60 % 60);
+    calendar.set(Calendar.SECOND, secondsAfterMidnight % 60);
+    Calendar now = new GregorianCalendar(zone);
+    now.setTimeInMillis(nowMillis);
+    findNextOccurrence(calendar, now, Week.valueOf(dayMask));
+    return calendar.getTimeInMillis();
+  }
+
+  // Copied unchanged from AlarmTime, except that the calendar, now and the
+  // days are parameters rather than fields and Calendar.getInstance().
+  private static void findNextOccurrence(Calendar calendar, Calendar now,
+      Week daysOfWeek) {
+    // If this hour/minute/second has already occurred today, move to tomorrow.
+    if (calendar.before(now)) {
+      calendar.add(Calendar.DATE, 1);
+    }
+
+    if (calendar.before(now)) {
+      throw new IllegalStateException("Inconsistent calendar.");
+    }
+
+    // If there are no repeats requested, there is nothing left to do.
+    if (daysOfWeek.equals(Week.NO_REPEATS)) {
+      return;
+    }
+
+    // Keep incrementing days until we hit a suitable day of the week.
+    for (int i = 0; i < Week.Day.values().length; ++i) {
+      Week.Day alarmDay = Week.calendarToDay(calendar.get(Calendar.DAY_OF_WEEK));
+      if (daysOfWeek.hasDay(alarmDay)) {
+        return;
+      }
+      calendar.add(Calendar.DATE, 1);
+    }
+
+    throw new IllegalStateException("Didn't find a suitable date for alarm.");
+  }
+
+  // The wall clock time at t, as seconds after midnight.
+  private static int wallSeconds(long t, TimeZone zone) {
+    Calendar c = new GregorianCalendar(zone);
+    c.setTimeInMillis(t);
+    return c.get(Calendar.HOUR_OF_DAY) * 3600 + c.get(Calendar.MINUTE) * 60
+        + c.get(Calendar.SECOND);
+  }
+
+  // Where the old code is known to be wrong, see the calendar tests below:
+  // it rang at a wall clock time other than the one set, having stepped
+  // across a daylight saving gap, or at the second occurrence of a time the
+  // clocks went back over.
+  private static boolean knownDifference(long reference,
+      int secondsAfterMidnight, TimeZone zone) {
+    if (wallSeconds(reference, zone) != secondsAfterMidnight) {
+      return true;
+    }
+    long shift = zone.getOffset(reference - 3 * HOUR) - zone.getOffset(reference);
+    return shift > 0 && shift < DAY
+        && wallSeconds(reference - shift, zone) == secondsAfterMidnight;
+  }
+
+  private static void assertMatchesReference(TimeZone zone, long from,
+      long to, long step) {
+    int[] masks = { 0, ALL_DAYS, bit(Calendar.SUNDAY), bit(Calendar.MONDAY),
+        bit(Calendar.SATURDAY) | bit(Calendar.WEDNESDAY) };
+    for (long now = from; now < to; now += step) {
+      for (int seconds = 0; seconds < NextOccurrence.SECONDS_PER_DAY;
+          seconds += 7 * 60 + 30) {
+        for (int mask : masks) {
+          long reference = reference(now, seconds, mask, zone);
+          if (knownDifference(reference, seconds, zone)) {
+            continue;
+          }
+          assertEquals(zone.getID() + " now=" + now + " seconds=" + seconds
+              + " mask=" + mask,
+              reference, NextOccurrence.after(now, seconds, mask, zone));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void matchesCalendarAroundTransitions() {
+    // Two days either side of each transition of 2016, in steps which
+    // don't divide an hour so that now lands on varied minutes.
+    long[][] transitions = {
+        { utc(2016, Calendar.MARCH, 13, 7, 0), utc(2016, Calendar.NOVEMBER, 6, 6, 0) },
+        { utc(2016, Calendar.APRIL, 2, 15, 0), utc(2016, Calendar.OCTOBER, 1, 15, 30) },
+        { utc(2016, Calendar.FEBRUARY, 21, 2, 0), utc(2016, Calendar.OCTOBER, 16, 3, 0) },
+    };
+    TimeZone[] zones = { NEW_YORK, LORD_HOWE, SAO_PAULO };
+    for (int i = 0; i < zones.length; ++i) {
+      for (long transition : transitions[i]) {
+        assertMatchesReference(zones[i], transition - 2 * DAY,
+            transition + 2 * DAY, 97 * MINUTE + 13 * 1000);
+      }
+    }
+  }
+
+  @Test
+  public void matchesCalendarWithoutDaylightSaving() {
+    long from = utc(2016, Calendar.JANUARY, 1, 0, 0);
+    assertMatchesReference(TimeZone.getTimeZone("Asia/Kolkata"), from,
+        from + 8 * DAY, 5 * HOUR + 11 * MINUTE);
+  }
+
+  @Test
+  public void calendarRangTheSecondOccurrenceOfAnOverlap() {
+    // 01:30 happens twice on 6 November 2016 in New York.  Set on that day,
+    // at 00:30, the old code rang at the second, standard time one; now it
+    // rings at the first.
+    long now = utc(2016, Calendar.NOVEMBER, 6, 4, 30);
+    assertEquals(utc(2016, Calendar.NOVEMBER, 6, 6, 30),
+        reference(now, seconds(1, 30), ALL_DAYS, NEW_YORK));
+    assertEquals(utc(2016, Calendar.NOVEMBER, 6, 5, 30),
+        NextOccurrence.after(now, seconds(1, 30), ALL_DAYS, NEW_YORK));
+  }
+
+  @Test
+  public void calendarCarriedAGapIntoTheFollowingDays() {
+    // Stepping a day at a time from the morning of 13 March 2016 in New
+    // York, the old code kept the hour the gap had pushed 02:00 to.
+    long now = utc(2016, Calendar.MARCH, 13, 5, 59);
+    int monday = bit(Calendar.MONDAY);
+    assertEquals(utc(2016, Calendar.MARCH, 14, 7, 0),
+        reference(now, seconds(2, 0), monday, NEW_YORK));
+    assertEquals(utc(2016, Calendar.MARCH, 14, 6, 0),
+        NextOccurrence.after(now, seconds(2, 0), monday, NEW_YORK));
+  }
+
+  @Test
+  public void calendarResolvedAGapBackwardsWhenStepping() {
+    // Stepping onto 13 March 2016 in New York, the old code resolved 02:00
+    // to 01:00 standard time, an hour early.  It rings at 03:00 daylight
+    // time, just after the gap.
+    long now = utc(2016, Calendar.MARCH, 11, 7, 0);
+    int sunday = bit(Calendar.SUNDAY);
+    assertEquals(utc(2016, Calendar.MARCH, 13, 6, 0),
+        reference(now, seconds(2, 0), sunday, NEW_YORK));
+    assertEquals(utc(2016, Calendar.MARCH, 13, 7, 0),
+        NextOccurrence.after(now, seconds(2, 0), sunday, NEW_YORK));
+  }
+
+  @Test
+  public void springForwardGapMovesPastTheGap() {
+    // 02:30 doesn't exist on 13 March 2016 in New York; it rings at 03:30.
+    long now = utc(2016, Calendar.MARCH, 13, 5, 0);
+    assertEquals(utc(2016, Calendar.MARCH, 13, 7, 30),
+        NextOccurrence.after(now, seconds(2, 30), 0, NEW_YORK));
+    // The day after is not affected by the gap.
+    assertEquals(utc(2016, Calendar.MARCH, 14, 6, 30),
+        NextOccurrence.after(now + DAY, seconds(2, 30), 0, NEW_YORK));
+  }
+
+  @Test
+  public void springForwardGapAtMidnight() {
+    // 00:00 to 00:59 don't exist on 16 October 2016 in Sao Paulo.
+    long now = utc(2016, Calendar.OCTOBER, 15, 12, 0);
+    assertEquals(utc(2016, Calendar.OCTOBER, 16, 3, 30),
+        NextOccurrence.after(now, seconds(0, 30), 0, SAO_PAULO));
+  }
+
+  @Test
+  public void fallBackOverlapRingsAtTheFirstOccurrence() {
+    // 01:30 happens twice on 6 November 2016 in New York: at 05:30 UTC in
+    // daylight time, then at 06:30 UTC in standard time.
+    long now = utc(2016, Calendar.NOVEMBER, 6, 0, 0);
+    assertEquals(utc(2016, Calendar.NOVEMBER, 6, 5, 30),
+        NextOccurrence.after(now, seconds(1, 30), ALL_DAYS, NEW_YORK));
+  }
+
+  @Test
+  public void fallBackOverlapDoesNotRingTwice() {
+    // Between the two occurrences, the next one is the following night.
+    long now = utc(2016, Calendar.NOVEMBER, 6, 5, 45);
+    assertEquals(utc(2016, Calendar.NOVEMBER, 7, 6, 30),
+        NextOccurrence.after(now, seconds(1, 30), ALL_DAYS, NEW_YORK));
+  }
+
+  @Test
+  public void lordHoweHalfHourGap() {
+    // On 2 October 2016 the clocks go from 02:00 to 02:30, so 02:15 rings at
+    // 02:45 daylight time (UTC+11).
+    long now = utc(2016, Calendar.OCTOBER, 1, 0, 0);
+    assertEquals(utc(2016, Calendar.OCTOBER, 1, 15, 45),
+        NextOccurrence.after(now, seconds(2, 15), 0, LORD_HOWE));
+  }
+
+  @Test
+  public void lordHoweHalfHourOverlap() {
+    // On 3 April 2016 the clocks go from 02:00 back to 01:30, so 01:45
+    // first happens in daylight time (UTC+11).
+    long now = utc(2016, Calendar.APRIL, 2, 0, 0);
+    assertEquals(utc(2016, Calendar.APRIL, 2, 14, 45),
+        NextOccurrence.after(now, seconds(1, 45), 0, LORD_HOWE));
+    // Just after that, the next is the following night at UTC+10:30.
+    assertEquals(utc(2016, Calendar.APRIL, 3, 15, 15),
+        NextOccurrence.after(utc(2016, Calendar.APRIL, 2, 14, 50),
+            seconds(1, 45), 0, LORD_HOWE));
+  }
+
+  @Test
+  public void weeklyAlarmAcrossTransition() {
+    // Saturday 5 November 2016, daylight time.  The next Monday 07:00 is
+    // after the clocks went back, in standard time.
+    long now = utc(2016, Calendar.NOVEMBER, 5, 12, 0);
+    assertEquals(utc(2016, Calendar.NOVEMBER, 7, 12, 0),
+        NextOccurrence.after(now, seconds(7, 0), bit(Calendar.MONDAY),
+            NEW_YORK));
+  }
+
+  @Test
+  public void exactlyNowIsNotSkipped() {
+    long now = utc(2016, Calendar.JUNE, 1, 11, 0);
+    assertEquals(now,
+        NextOccurrence.after(now, seconds(7, 0), 0, NEW_YORK));
+  }
+}
@@ -0,0 +1,100 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class PendingAlarmListTest {
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+  // Tuesday 1 March 2016, 07:00:00 UTC.
+  private static final long SEVEN_AM = 1456815600000L;
+  private static final int SEVEN_AM_SECONDS = 7 * 60 * 60;
+
+  // Schedules an alarm the way a freshly started service does: for its first
+  // occurrence after now.
+  private static void schedule(AlarmQueue<AlarmTime> queue, long alarmId,
+      int secondsAfterMidnight, Week days, long now) {
+    AlarmTime time = new AlarmTime(secondsAfterMidnight, days);
+    queue.put(alarmId, NextOccurrence.after(now, secondsAfterMidnight,
+        days.mask(), UTC), time);
+  }
+
+  private static long[] sorted(long[] ids) {
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  @Test
+  public void liveProcessDeliversAlarmsDueInTheWindow() {
+    long armedAt = SEVEN_AM - 60 * 60 * 1000;
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    schedule(queue, 1, SEVEN_AM_SECONDS, Week.EVERYDAY, armedAt);
+    schedule(queue, 2, SEVEN_AM_SECONDS, Week.NO_REPEATS, armedAt);
+    schedule(queue, 3, SEVEN_AM_SECONDS + 60, Week.EVERYDAY, armedAt);
+
+    assertArrayEquals(new long[] { 1, 2 }, sorted(
+        PendingAlarmList.dueAlarms(queue, SEVEN_AM, SEVEN_AM + 200, false,
+            UTC)));
+  }
+
+  @Test
+  public void liveProcessLeavesLaterOccurrencesAlone() {
+    // Alarm 2 was set after 07:00 and is due tomorrow; in a process which
+    // armed the wakeup itself nothing has been moved on.
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    schedule(queue, 2, SEVEN_AM_SECONDS, Week.EVERYDAY, SEVEN_AM + 100);
+
+    assertArrayEquals(new long[0], PendingAlarmList.dueAlarms(queue,
+        SEVEN_AM, SEVEN_AM + 200, false, UTC));
+  }
+
+  @Test
+  public void restartAtFireDeliversAlarmsMovedToTheirNextOccurrence() {
+    // The process died before 07:00 and the wakeup for alarm 1 restarted
+    // it.  Every alarm was rescheduled from now, so those due at 07:00 have
+    // moved on to the next day or week.
+    long now = SEVEN_AM + 300;
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    schedule(queue, 2, SEVEN_AM_SECONDS, Week.EVERYDAY, now);
+    schedule(queue, 3, SEVEN_AM_SECONDS, Week.NO_REPEATS, now);
+    schedule(queue, 4, SEVEN_AM_SECONDS,
+        Week.NO_REPEATS.withDay(Week.Day.TUE), now);
+    assertTrue(queue.timeOf(2) > now + PendingAlarmList.FIRING_WINDOW_MILLIS);
+
+    assertArrayEquals(new long[] { 2, 3, 4 }, sorted(
+        PendingAlarmList.dueAlarms(queue, SEVEN_AM, now, true, UTC)));
+  }
+
+  @Test
+  public void restartAtFireLeavesAlarmsOutsideTheWindow() {
+    long now = SEVEN_AM + 300;
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    // Rang a minute ago, before the window.
+    schedule(queue, 2, SEVEN_AM_SECONDS - 60, Week.EVERYDAY, now);
+    // Due in five seconds, after the window.
+    schedule(queue, 3, SEVEN_AM_SECONDS + 5, Week.EVERYDAY, now);
+    // Due at this time, but only on Wednesdays.
+    schedule(queue, 4, SEVEN_AM_SECONDS,
+        Week.NO_REPEATS.withDay(Week.Day.WED), now);
+
+    assertArrayEquals(new long[0],
+        PendingAlarmList.dueAlarms(queue, SEVEN_AM, now, true, UTC));
+  }
+
+  @Test
+  public void lateWakeupDeliversEverythingSinceItWasArmed() {
+    // The wakeup was held back for a few minutes, by doze for example, and
+    // restarted the process: alarm 3 has been moved on to tomorrow.
+    long now = SEVEN_AM + 3 * 60 * 1000;
+    AlarmQueue<AlarmTime> queue = new AlarmQueue<>();
+    schedule(queue, 2, SEVEN_AM_SECONDS + 60, Week.EVERYDAY, SEVEN_AM);
+    schedule(queue, 3, SEVEN_AM_SECONDS + 120, Week.EVERYDAY, now);
+
+    assertArrayEquals(new long[] { 2, 3 }, sorted(
+        PendingAlarmList.dueAlarms(queue, SEVEN_AM, now, true, UTC)));
+  }
+}
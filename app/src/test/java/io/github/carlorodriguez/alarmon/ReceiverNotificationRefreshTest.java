@@ -0,0 +1,80 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReceiverNotificationRefreshTest {
+  private static final long MINUTE = 60 * 1000;
+  private static final long HOUR = 60 * MINUTE;
+  private static final long DAY = 24 * HOUR;
+
+  // Some time on a Sunday, not on a minute boundary.
+  private static final long NOW = 1466300000000L + 17 * 1000;
+
+  // The countdown as coarseTimeUntilString() displays it, in minutes.
+  private static long displayed(long alarmMillis, long now) {
+    long step = AlarmTime.countdownGranularity(alarmMillis, now).millis()
+        / MINUTE;
+    return (alarmMillis / MINUTE - now / MINUTE) / step * step;
+  }
+
+  @Test
+  public void countsMinutesForTheLastDay() {
+    long start = NOW / MINUTE * MINUTE;
+    assertEquals(AlarmUtil.Interval.MINUTE,
+        AlarmTime.countdownGranularity(start + 5 * MINUTE, NOW));
+    assertEquals(AlarmUtil.Interval.MINUTE,
+        AlarmTime.countdownGranularity(start + 10 * HOUR + 7 * MINUTE, NOW));
+    assertEquals(AlarmUtil.Interval.MINUTE,
+        AlarmTime.countdownGranularity(start + DAY - MINUTE, NOW));
+    assertEquals(AlarmUtil.Interval.HOUR,
+        AlarmTime.countdownGranularity(start + DAY, NOW));
+    assertEquals(AlarmUtil.Interval.HOUR,
+        AlarmTime.countdownGranularity(start + 2 * DAY - MINUTE, NOW));
+    assertEquals(AlarmUtil.Interval.DAY,
+        AlarmTime.countdownGranularity(start + 2 * DAY, NOW));
+  }
+
+  @Test
+  public void refreshesExactlyWhenTheCountdownChanges() {
+    long[] aheads = { 3 * MINUTE, 7 * HOUR + 59 * MINUTE + 30 * 1000,
+        DAY + 20 * MINUTE, 3 * DAY + 5 * HOUR + 1234 };
+    for (long ahead : aheads) {
+      long alarm = NOW + ahead;
+      long now = NOW;
+      while (true) {
+        long next = ReceiverNotificationRefresh.nextRefresh(alarm, now);
+        if (next == alarm) {
+          break;
+        }
+        assertTrue(next > now);
+        for (long t = now; t < next; t += MINUTE) {
+          assertEquals(displayed(alarm, now), displayed(alarm, t));
+        }
+        assertNotEquals(displayed(alarm, now), displayed(alarm, next));
+        now = next;
+      }
+    }
+  }
+
+  @Test
+  public void refreshesEveryMinuteOnTheLastDay() {
+    // The last second of the last minute counted in minutes.
+    long alarm = NOW / MINUTE * MINUTE + DAY - 1000;
+    long now = NOW;
+    int refreshes = 0;
+    while (now != alarm) {
+      now = ReceiverNotificationRefresh.nextRefresh(alarm, now);
+      ++refreshes;
+    }
+    assertEquals(24 * 60, refreshes);
+  }
+
+  @Test
+  public void stopsOnceTheAlarmHasGoneOff() {
+    assertEquals(-1, ReceiverNotificationRefresh.nextRefresh(NOW - 1, NOW));
+  }
+}
@@ -0,0 +1,121 @@
+package io.github.carlorodriguez.alarmon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class VolumeRampTest {
+  private static final float DELTA = 1e-6f;
+  private static final long DURATION = 30 * 1000;
+
+  private static final class FakeClock implements VolumeRamp.Clock {
+    long now = 1000;
+
+    @Override
+    public long uptimeMillis() {
+      return now;
+    }
+  }
+
+  private final FakeClock clock = new FakeClock();
+  private final VolumeRamp ramp = new VolumeRamp(clock);
+
+  @Test
+  public void startsAtTheStartVolume() {
+    for (VolumeRamp.Curve curve : VolumeRamp.Curve.values()) {
+      ramp.start(0.2f, 0.9f, DURATION, curve);
+      assertEquals(curve.name(), 0.2f, ramp.volume(), DELTA);
+      assertFalse(curve.name(), ramp.isFinished());
+    }
+  }
+
+  @Test
+  public void finishesExactlyAtTheDuration() {
+    for (VolumeRamp.Curve curve : VolumeRamp.Curve.values()) {
+      long start = clock.now;
+      ramp.start(0.2f, 0.9f, DURATION, curve);
+      clock.now = start + DURATION - 1;
+      assertFalse(curve.name(), ramp.isFinished());
+      assertTrue(curve.name(), ramp.volume() < 0.9f);
+      clock.now = start + DURATION;
+      assertTrue(curve.name(), ramp.isFinished());
+      assertEquals(curve.name(), 0.9f, ramp.volume(), 0);
+      clock.now = start + 10 * DURATION;
+      assertEquals(curve.name(), 0.9f, ramp.volume(), 0);
+    }
+  }
+
+  @Test
+  public void risingRampsNeverGetQuieter() {
+    for (VolumeRamp.Curve curve : VolumeRamp.Curve.values()) {
+      long start = clock.now;
+      ramp.start(0, 1, DURATION, curve);
+      float previous = ramp.volume();
+      for (long t = 1; t <= DURATION; t += 7) {
+        clock.now = start + t;
+        float volume = ramp.volume();
+        assertTrue(curve.name() + " at " + t, volume >= previous);
+        previous = volume;
+      }
+    }
+  }
+
+  @Test
+  public void fallingRampsNeverGetLouder() {
+    for (VolumeRamp.Curve curve : VolumeRamp.Curve.values()) {
+      long start = clock.now;
+      ramp.start(1, 0.1f, DURATION, curve);
+      float previous = ramp.volume();
+      for (long t = 1; t <= DURATION; t += 7) {
+        clock.now = start + t;
+        float volume = ramp.volume();
+        assertTrue(curve.name() + " at " + t, volume <= previous);
+        previous = volume;
+      }
+      clock.now = start + DURATION;
+      assertEquals(curve.name(), 0.1f, ramp.volume(), 0);
+    }
+  }
+
+  @Test
+  public void curvesHaveTheirShape() {
+    long start = clock.now;
+    ramp.start(0, 1, DURATION, VolumeRamp.Curve.LINEAR);
+    clock.now = start + DURATION / 2;
+    assertEquals(0.5f, ramp.volume(), DELTA);
+
+    start = clock.now;
+    ramp.start(0, 1, DURATION, VolumeRamp.Curve.LOGARITHMIC);
+    clock.now = start + DURATION / 2;
+    assertEquals(Math.log10(5.5), ramp.volume(), DELTA);
+
+    start = clock.now;
+    ramp.start(0, 1, DURATION, VolumeRamp.Curve.EXPONENTIAL);
+    clock.now = start + DURATION / 2;
+    assertEquals((Math.sqrt(10) - 1) / 9, ramp.volume(), DELTA);
+  }
+
+  @Test
+  public void zeroDurationIsAtTheEndVolumeAtOnce() {
+    ramp.start(0, 0.7f, 0, VolumeRamp.Curve.EXPONENTIAL);
+    assertTrue(ramp.isFinished());
+    assertEquals(0.7f, ramp.volume(), 0);
+  }
+
+  @Test
+  public void negativeDurationIsAtTheEndVolumeAtOnce() {
+    ramp.start(0, 0.7f, -5000, VolumeRamp.Curve.LINEAR);
+    assertTrue(ramp.isFinished());
+    assertEquals(0.7f, ramp.volume(), 0);
+  }
+
+  @Test
+  public void clockBeforeTheStartGivesTheStartVolume() {
+    ramp.start(0.3f, 1, DURATION, VolumeRamp.Curve.LOGARITHMIC);
+    clock.now -= 100;
+    assertEquals(0.3f, ramp.volume(), DELTA);
+    assertFalse(ramp.isFinished());
+  }
+}